@@ -3,6 +3,7 @@ package net.jk.app;
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 import net.jk.app.commons.boot.CommonConstants;
+import net.jk.app.commons.boot.jpa.repository.VoilaJpaRepository;
 import net.jk.app.commons.boot.jpa.transaction.ReplicaAwareRoutingDataSource;
 import net.jk.app.commons.domain.model.system.VoilaSystemEntity;
 import net.jk.app.commons.domain.repository.system.VoilaSystemEntityRepository;
@@ -29,6 +30,7 @@ import org.springframework.transaction.support.TransactionTemplate;
 @EnableJpaRepositories(
     entityManagerFactoryRef = "systemEntityManagerFactory",
     transactionManagerRef = CommonConstants.SYSTEM_TX_MANAGER,
+    repositoryBaseClass = VoilaJpaRepository.class,
     basePackageClasses = {TenantRepository.class, VoilaSystemEntityRepository.class})
 public class SystemDatabaseConfiguration {
 
@@ -3,6 +3,7 @@ package net.jk.app;
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 import net.jk.app.commons.boot.CommonConstants;
+import net.jk.app.commons.boot.jpa.repository.VoilaJpaRepository;
 import net.jk.app.commons.boot.jpa.transaction.ReplicaAwareRoutingDataSource;
 import net.jk.app.commons.domain.model.tenant.Contact;
 import net.jk.app.commons.domain.repository.tenant.ContactRepository;
@@ -34,6 +35,7 @@ import org.springframework.transaction.support.TransactionTemplate;
 @EnableTransactionManagement
 @EnableJpaRepositories(
     entityManagerFactoryRef = "entityManagerFactory",
+    repositoryBaseClass = VoilaJpaRepository.class,
     basePackageClasses = {ApplicationUserRepository.class, ContactRepository.class})
 public class TenantDatabaseConfiguration {
 
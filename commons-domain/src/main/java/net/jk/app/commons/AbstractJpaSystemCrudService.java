@@ -3,10 +3,13 @@ package net.jk.app.commons;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import javax.persistence.EntityExistsException;
 import net.jk.app.commons.boot.CommonConstants;
+import net.jk.app.commons.boot.repository.KeysetPage;
 import net.jk.app.commons.boot.security.domain.IApplicationUser;
 import net.jk.app.commons.boot.service.AbstractEntityCrudServiceV2;
 import org.hibernate.dialect.lock.OptimisticEntityLockException;
@@ -40,6 +43,20 @@ public abstract class AbstractJpaSystemCrudService<E, C, U, ID extends Serializa
     return super.getAll(user);
   }
 
+  @Transactional(value = CommonConstants.SYSTEM_TX_MANAGER, readOnly = true)
+  @Override
+  public KeysetPage<E> getPage(
+      IApplicationUser user, String after, int size, Map<String, Object> filter) {
+    return super.getPage(user, after, size, filter);
+  }
+
+  @Transactional(value = CommonConstants.SYSTEM_TX_MANAGER, readOnly = true)
+  @Override
+  public void stream(
+      IApplicationUser user, Map<String, Object> filter, Consumer<? super E> consumer) {
+    super.stream(user, filter, consumer);
+  }
+
   @Transactional(value = CommonConstants.SYSTEM_TX_MANAGER, readOnly = true)
   @Override
   public Optional<E> getById(IApplicationUser user, ID id) {
@@ -5,6 +5,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Version;
 import javax.validation.constraints.Email;
@@ -36,7 +37,12 @@ import net.jk.app.commons.domain.model.AbstractAuditableEntity;
 @AllArgsConstructor
 public class Contact extends AbstractAuditableEntity implements ITenantEntity {
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  // pooled sequence instead of IDENTITY, so inserts can be batched
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "contact_id_seq")
+  @SequenceGenerator(
+      name = "contact_id_seq",
+      sequenceName = "contact_contact_id_seq",
+      allocationSize = 50)
   @Column(name = "contact_id")
   private Long contactId;
 
@@ -1,6 +1,8 @@
 package net.jk.app.commons.domain.repository.tenant;
 
+import net.jk.app.commons.boot.repository.IEntityRepository;
 import net.jk.app.commons.domain.model.tenant.Contact;
 import org.springframework.data.jpa.repository.JpaRepository;
 
-public interface ContactRepository extends JpaRepository<Contact, Long> {}
+public interface ContactRepository
+    extends JpaRepository<Contact, Long>, IEntityRepository<Contact, Long> {}
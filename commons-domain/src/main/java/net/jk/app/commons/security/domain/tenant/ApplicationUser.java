@@ -17,6 +17,7 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToOne;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.persistence.Version;
@@ -56,7 +57,12 @@ public class ApplicationUser extends AbstractAuditableEntity
           .collect(Collectors.toSet());
 
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  // pooled sequence instead of IDENTITY, so inserts can be batched
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "app_user_id_seq")
+  @SequenceGenerator(
+      name = "app_user_id_seq",
+      sequenceName = "app_user_app_user_id_seq",
+      allocationSize = 50)
   @Column(name = "app_user_id")
   private Long applicationuUserId;
 
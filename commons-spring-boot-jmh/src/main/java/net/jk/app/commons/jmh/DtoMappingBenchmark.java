@@ -0,0 +1,92 @@
+package net.jk.app.commons.jmh;
+
+import static org.springframework.util.StringUtils.concatenateStringArrays;
+
+import java.lang.reflect.Field;
+import java.time.OffsetDateTime;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.jk.app.commons.boot.exception.NonUpdateableFieldViolationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.BeanUtils;
+
+/** Mapping of create and update dtos to entities, before and after compiling the mappings. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DtoMappingBenchmark {
+
+  private static final String[] IGNORED = {"roles"};
+  private static final String[] NON_UPDATEABLE = {"code"};
+
+  private SampleService service;
+  private Field codeField;
+  private SampleDto dto;
+  private SampleEntity entity;
+
+  @Setup
+  public void setUp() throws NoSuchFieldException {
+    service = new SampleService();
+    codeField = SampleEntity.class.getDeclaredField("code");
+    codeField.setAccessible(true);
+
+    dto = new SampleDto();
+    dto.setCode("C-1001");
+    dto.setFirstName("Ada");
+    dto.setLastName("Lovelace");
+    dto.setEmail("ada@example.com");
+    dto.setPhoneNumber("+44 20 7946 0000");
+    dto.setActive(true);
+    dto.setLoginCount(42);
+    dto.setCreatedOn(OffsetDateTime.parse("2020-03-01T10:15:30+01:00"));
+    dto.setRoles(Set.of("USER"));
+
+    entity = service.mapCreate(dto);
+  }
+
+  @Benchmark
+  public SampleEntity beanUtilsCreate() throws ReflectiveOperationException {
+    SampleEntity created = SampleEntity.class.getDeclaredConstructor().newInstance();
+    BeanUtils.copyProperties(dto, created, IGNORED);
+    return created;
+  }
+
+  @Benchmark
+  public SampleEntity compiledCreate() {
+    return service.mapCreate(dto);
+  }
+
+  @Benchmark
+  public SampleEntity beanUtilsUpdate() throws IllegalAccessException {
+    try {
+      Field inputSource = dto.getClass().getDeclaredField(codeField.getName());
+      inputSource.setAccessible(true);
+      if (codeField.getType().equals(inputSource.getType())
+          && !Objects.equals(inputSource.get(dto), codeField.get(entity))) {
+        throw new NonUpdateableFieldViolationException(codeField.getName());
+      }
+    } catch (NoSuchFieldException e) {
+      // same as the service, ignored
+    }
+    BeanUtils.copyProperties(dto, entity, concatenateStringArrays(IGNORED, NON_UPDATEABLE));
+    return entity;
+  }
+
+  @Benchmark
+  public SampleEntity compiledUpdate() {
+    return service.mapUpdate(dto, entity);
+  }
+}
@@ -0,0 +1,19 @@
+package net.jk.app.commons.jmh;
+
+import java.time.OffsetDateTime;
+import java.util.Set;
+import lombok.Data;
+
+/** Create and update dto of {@link SampleEntity}. */
+@Data
+public class SampleDto {
+  private String code;
+  private String firstName;
+  private String lastName;
+  private String email;
+  private String phoneNumber;
+  private boolean active;
+  private int loginCount;
+  private OffsetDateTime createdOn;
+  private Set<String> roles;
+}
@@ -0,0 +1,28 @@
+package net.jk.app.commons.jmh;
+
+import java.time.OffsetDateTime;
+import java.util.Set;
+import lombok.Data;
+import net.jk.app.commons.boot.domain.IEntity;
+import net.jk.app.commons.boot.domain.NonUpdateable;
+
+/** Entity shaped like the tenant entities, with a mix of property types. */
+@Data
+public class SampleEntity implements IEntity {
+  private Long sampleId;
+  private int tenantId;
+  @NonUpdateable private String code;
+  private String firstName;
+  private String lastName;
+  private String email;
+  private String phoneNumber;
+  private boolean active;
+  private int loginCount;
+  private OffsetDateTime createdOn;
+  private Set<String> roles;
+
+  @Override
+  public String getPublicId() {
+    return code;
+  }
+}
@@ -0,0 +1,53 @@
+package net.jk.app.commons.jmh;
+
+import java.util.Map;
+import java.util.Optional;
+import net.jk.app.commons.boot.repository.IEntityRepository;
+import net.jk.app.commons.boot.security.domain.IApplicationUser;
+import net.jk.app.commons.boot.service.AbstractEntityCrudServiceV2;
+import net.jk.app.commons.boot.service.OperationType;
+
+/** Exposes the dto mapping of the CRUD base class, nothing else is used. */
+public class SampleService
+    extends AbstractEntityCrudServiceV2<SampleEntity, SampleDto, SampleDto, Long> {
+
+  public SampleEntity mapCreate(SampleDto createDto) {
+    return createDtoToEntity(null, createDto);
+  }
+
+  public SampleEntity mapUpdate(SampleDto updateDto, SampleEntity entity) {
+    return updateDtoToEntity(null, updateDto, entity);
+  }
+
+  @Override
+  protected String[] ignoreOnCopyProperties() {
+    return new String[] {"roles"};
+  }
+
+  @Override
+  protected IEntityRepository<SampleEntity, ?> getRepository() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  protected Optional<SampleEntity> getEntityById(IApplicationUser user, Long id) {
+    return Optional.empty();
+  }
+
+  @Override
+  protected boolean isAuthorized(
+      IApplicationUser user, SampleEntity entity, OperationType operationType) {
+    return true;
+  }
+
+  @Override
+  protected Optional<SampleEntity> getExistingConflictingEntity(
+      IApplicationUser user, SampleDto createDto) {
+    return Optional.empty();
+  }
+
+  @Override
+  protected Map<String, Object> getDtoFinderValues(SampleDto createDto) {
+    return Map.of("code", createDto.getCode());
+  }
+}
@@ -0,0 +1,279 @@
+package net.jk.app.commons.boot.jpa.repository;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import net.jk.app.commons.boot.exception.InvalidRequestException;
+import net.jk.app.commons.boot.exception.VoilaError;
+import net.jk.app.commons.boot.repository.IEntityRepository;
+import net.jk.app.commons.boot.repository.KeysetPage;
+import net.jk.app.commons.boot.repository.PageQuery;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.core.convert.ConversionException;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.data.util.DirectFieldAccessFallbackBeanWrapper;
+
+/**
+ * Base class for all Spring Data JPA repositories, to be registered as {@code repositoryBaseClass}
+ * in {@code @EnableJpaRepositories}
+ *
+ * <p>Implements the {@link IEntityRepository} methods Spring Data cannot derive from a method name,
+ * such as keyset pagination, streaming, set-based existence checks and version checks
+ */
+public class VoilaJpaRepository<E, ID extends Serializable> extends SimpleJpaRepository<E, ID>
+    implements IEntityRepository<E, ID> {
+
+  /** Attribute holding the tenant ID on all tenant entities */
+  public static final String TENANT_ID_ATTRIBUTE = "tenantId";
+
+  private static final ConversionService CONVERSION_SERVICE =
+      DefaultConversionService.getSharedInstance();
+
+  private final JpaEntityInformation<E, ?> entityInformation;
+  private final EntityManager entityManager;
+  private final String versionAttribute;
+  private final Set<String> attributeNames;
+
+  public VoilaJpaRepository(
+      JpaEntityInformation<E, ?> entityInformation, EntityManager entityManager) {
+    super(entityInformation, entityManager);
+    this.entityInformation = entityInformation;
+    this.entityManager = entityManager;
+
+    EntityType<E> type = entityManager.getMetamodel().entity(entityInformation.getJavaType());
+    versionAttribute =
+        type.hasVersionAttribute()
+            ? type.getSingularAttributes()
+                .stream()
+                .filter(SingularAttribute::isVersion)
+                .map(SingularAttribute::getName)
+                .findFirst()
+                .orElse(null)
+            : null;
+    attributeNames =
+        type.getSingularAttributes()
+            .stream()
+            .filter(a -> a.getPersistentAttributeType() == PersistentAttributeType.BASIC)
+            .map(SingularAttribute::getName)
+            .collect(Collectors.toUnmodifiableSet());
+  }
+
+  @Override
+  public KeysetPage<E> findPage(PageQuery query) {
+    // one extra row tells if there is a next page, without a count query
+    List<E> items =
+        entityManager
+            .createQuery(createQuery(query))
+            .setMaxResults(query.getSize() + 1)
+            .getResultList();
+    if (items.size() <= query.getSize()) {
+      return new KeysetPage<>(items, null);
+    }
+    items = items.subList(0, query.getSize());
+    Object lastId = entityInformation.getId(items.get(items.size() - 1));
+    return new KeysetPage<>(items, String.valueOf(lastId));
+  }
+
+  @Override
+  public Stream<E> stream(PageQuery query) {
+    Stream<E> results =
+        entityManager
+            .createQuery(createQuery(query))
+            .setHint(QueryHints.HINT_FETCH_SIZE, query.getSize())
+            .setHint(QueryHints.HINT_READONLY, true)
+            .getResultStream();
+    Iterator<E> rows = results.iterator();
+    int batchSize = query.getSize();
+    Iterator<E> clearing =
+        new Iterator<E>() {
+          private long count;
+          private boolean clearPending;
+
+          @Override
+          public boolean hasNext() {
+            // the next row is loaded by hasNext, so the previous batch is let go right before
+            if (clearPending) {
+              clearPending = false;
+              entityManager.clear();
+            }
+            return rows.hasNext();
+          }
+
+          @Override
+          public E next() {
+            E entity = rows.next();
+            clearPending = ++count % batchSize == 0;
+            return entity;
+          }
+        };
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(
+                clearing, Spliterator.ORDERED | Spliterator.NONNULL),
+            false)
+        .onClose(results::close);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private CriteriaQuery<E> createQuery(PageQuery query) {
+    if (entityInformation.hasCompositeId()) {
+      throw new UnsupportedOperationException(
+          "Keyset pagination requires a single id attribute on " + getDomainClass().getName());
+    }
+    CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+    CriteriaQuery<E> criteria = cb.createQuery(getDomainClass());
+    Root<E> root = criteria.from(getDomainClass());
+    String idAttribute = entityInformation.getIdAttribute().getName();
+    Path<Comparable> id = root.get(idAttribute);
+
+    List<Predicate> predicates = new ArrayList<>();
+    if (query.getAfter() != null) {
+      predicates.add(cb.greaterThan(id, (Comparable) convert(query.getAfter(), id, idAttribute)));
+    }
+    if (query.getTenantId() != null) {
+      predicates.add(cb.equal(root.get(TENANT_ID_ATTRIBUTE), query.getTenantId()));
+    }
+    query
+        .getFilter()
+        .forEach(
+            (attribute, value) -> {
+              Path<?> path = root.get(attribute);
+              predicates.add(
+                  value == null
+                      ? cb.isNull(path)
+                      : cb.equal(path, convert(value, path, attribute)));
+            });
+    query
+        .getRestrictions()
+        .forEach(
+            (attribute, values) -> {
+              Path<?> path = root.get(attribute);
+              predicates.add(
+                  values.isEmpty()
+                      ? cb.disjunction()
+                      : path.in(values.stream().map(v -> convert(v, path, attribute)).toArray()));
+            });
+
+    return criteria.select(root).where(predicates.toArray(new Predicate[0])).orderBy(cb.asc(id));
+  }
+
+  @Override
+  public Set<Map<String, Object>> findExistingCombinations(
+      Integer tenantId, Collection<Map<String, Object>> combinations) {
+    if (combinations.isEmpty()) {
+      return Set.of();
+    }
+    CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Tuple> criteria = cb.createTupleQuery();
+    Root<E> root = criteria.from(getDomainClass());
+    List<String> attributes = new ArrayList<>(combinations.iterator().next().keySet());
+
+    // values are matched against the result rows in the attribute types, not as passed in
+    Map<Map<String, Object>, Map<String, Object>> byTypedValues = new HashMap<>();
+    List<Predicate> alternatives = new ArrayList<>();
+    for (Map<String, Object> combination : combinations) {
+      Map<String, Object> typedValues = new HashMap<>();
+      List<Predicate> predicates = new ArrayList<>();
+      for (String attribute : attributes) {
+        Path<?> path = root.get(attribute);
+        Object value = combination.get(attribute);
+        Object typedValue = value == null ? null : convert(value, path, attribute);
+        typedValues.put(attribute, typedValue);
+        predicates.add(typedValue == null ? cb.isNull(path) : cb.equal(path, typedValue));
+      }
+      byTypedValues.put(typedValues, combination);
+      alternatives.add(cb.and(predicates.toArray(new Predicate[0])));
+    }
+
+    Predicate matches = cb.or(alternatives.toArray(new Predicate[0]));
+    if (tenantId != null) {
+      matches = cb.and(cb.equal(root.get(TENANT_ID_ATTRIBUTE), tenantId), matches);
+    }
+    List<Selection<?>> selections =
+        attributes.stream().map(attribute -> root.get(attribute)).collect(Collectors.toList());
+    criteria.multiselect(selections).where(matches);
+
+    Set<Map<String, Object>> existing = new HashSet<>();
+    for (Tuple tuple : entityManager.createQuery(criteria).getResultList()) {
+      Map<String, Object> typedValues = new HashMap<>();
+      for (int i = 0; i < attributes.size(); i++) {
+        typedValues.put(attributes.get(i), tuple.get(i));
+      }
+      Map<String, Object> combination = byTypedValues.get(typedValues);
+      if (combination != null) {
+        existing.add(combination);
+      }
+    }
+    return existing;
+  }
+
+  @Override
+  public Set<String> getAttributeNames() {
+    return attributeNames;
+  }
+
+  @Override
+  public Object getEntityId(E entity) {
+    return entityInformation.getId(entity);
+  }
+
+  @Override
+  public boolean isCurrentVersion(E entity) {
+    if (versionAttribute == null) {
+      return true;
+    }
+    if (entityInformation.hasCompositeId()) {
+      throw new UnsupportedOperationException(
+          "Version checks require a single id attribute on " + getDomainClass().getName());
+    }
+    Object id = entityInformation.getId(entity);
+    Object version =
+        new DirectFieldAccessFallbackBeanWrapper(entity).getPropertyValue(versionAttribute);
+    if (id == null || version == null) {
+      return false;
+    }
+    // a count on the primary key, much cheaper than loading the entity with its associations
+    CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Long> criteria = cb.createQuery(Long.class);
+    Root<E> root = criteria.from(getDomainClass());
+    criteria
+        .select(cb.count(root))
+        .where(
+            cb.equal(root.get(entityInformation.getIdAttribute().getName()), id),
+            cb.equal(root.get(versionAttribute), version));
+    return entityManager.createQuery(criteria).getSingleResult() > 0;
+  }
+
+  // query values usually come in as strings from request parameters
+  private Object convert(Object value, Path<?> path, String attribute) {
+    try {
+      return CONVERSION_SERVICE.convert(value, path.getJavaType());
+    } catch (ConversionException e) {
+      throw new InvalidRequestException(VoilaError.INVALID_VALUE_FOR_ATTRIBUTE, attribute, value);
+    }
+  }
+}
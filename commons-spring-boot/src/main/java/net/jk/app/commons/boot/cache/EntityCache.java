@@ -0,0 +1,157 @@
+package net.jk.app.commons.boot.cache;
+
+import com.google.common.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.Serializable;
+import java.util.Optional;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Cache of the entities of one type, a near cache local to this instance in front of the optional
+ * {@link IDistributedEntityCache}
+ *
+ * <p>Near cache entries are served without a database round trip for {@code verifyIntervalMillis}
+ * after they were loaded or last checked. This instance evicts every entity it writes, so within
+ * that interval only changes made by other instances can go unseen. Older entries, and every
+ * entry of the distributed tier, are passed to a currency check first; entries failing it are
+ * evicted from both tiers and reported as miss, entries passing it as {@code revalidated}, since
+ * they still cost a query. Only entries served without a query count as hit.
+ *
+ * <p>Records {@code entity.cache.requests} (tagged with the result), {@code entity.cache.stale},
+ * {@code entity.cache.hit.ratio} and {@code entity.cache.size} for the entity type
+ *
+ * @param <E> DB entity type
+ */
+public class EntityCache<E> {
+
+  private final Class<E> entityType;
+  private final Cache<EntityCacheKey, Entry<E>> nearCache;
+  @Nullable private final IDistributedEntityCache distributedCache;
+  private final long verifyIntervalMillis;
+
+  private final Counter hitCounter;
+  private final Counter revalidatedCounter;
+  private final Counter missCounter;
+  private final Counter staleCounter;
+
+  EntityCache(
+      Class<E> entityType,
+      Cache<EntityCacheKey, Entry<E>> nearCache,
+      @Nullable IDistributedEntityCache distributedCache,
+      long verifyIntervalMillis,
+      MeterRegistry meterRegistry) {
+    this.entityType = entityType;
+    this.nearCache = nearCache;
+    this.distributedCache = distributedCache;
+    this.verifyIntervalMillis = verifyIntervalMillis;
+
+    String entity = entityType.getSimpleName();
+    hitCounter =
+        Counter.builder("entity.cache.requests")
+            .tag("entity", entity)
+            .tag("result", "hit")
+            .register(meterRegistry);
+    revalidatedCounter =
+        Counter.builder("entity.cache.requests")
+            .tag("entity", entity)
+            .tag("result", "revalidated")
+            .register(meterRegistry);
+    missCounter =
+        Counter.builder("entity.cache.requests")
+            .tag("entity", entity)
+            .tag("result", "miss")
+            .register(meterRegistry);
+    staleCounter =
+        Counter.builder("entity.cache.stale").tag("entity", entity).register(meterRegistry);
+    Gauge.builder("entity.cache.hit.ratio", this, EntityCache::getHitRatio)
+        .tag("entity", entity)
+        .register(meterRegistry);
+    Gauge.builder("entity.cache.size", nearCache, Cache::size)
+        .tag("entity", entity)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Returns the cached entity, if there is one and it was checked recently or passes {@code
+   * isCurrent}
+   *
+   * @param tenantId tenant of the entity, null for entities that are not tenant-specific
+   */
+  public Optional<E> get(Integer tenantId, Serializable id, Predicate<? super E> isCurrent) {
+    EntityCacheKey key = key(tenantId, id);
+    long now = System.currentTimeMillis();
+    Entry<E> entry = nearCache.getIfPresent(key);
+    if (entry != null && now - entry.verifiedAt < verifyIntervalMillis) {
+      hitCounter.increment();
+      return Optional.of(entry.entity);
+    }
+    E entity = entry != null ? entry.entity : null;
+    if (entity == null && distributedCache != null) {
+      entity =
+          distributedCache
+              .get(key)
+              .filter(entityType::isInstance)
+              .map(entityType::cast)
+              .orElse(null);
+    }
+    if (entity == null) {
+      missCounter.increment();
+      return Optional.empty();
+    }
+    if (!isCurrent.test(entity)) {
+      staleCounter.increment();
+      missCounter.increment();
+      evict(key);
+      return Optional.empty();
+    }
+    nearCache.put(key, new Entry<>(entity, now));
+    revalidatedCounter.increment();
+    return Optional.of(entity);
+  }
+
+  /** Caches the entity in all tiers */
+  public void put(Integer tenantId, Serializable id, E entity) {
+    EntityCacheKey key = key(tenantId, id);
+    nearCache.put(key, new Entry<>(entity, System.currentTimeMillis()));
+    if (distributedCache != null) {
+      distributedCache.put(key, entity);
+    }
+  }
+
+  /** Removes the entity from all tiers */
+  public void evict(Integer tenantId, Serializable id) {
+    evict(key(tenantId, id));
+  }
+
+  /** Share of the lookups served from the cache without a query, 0 before the first lookup */
+  public double getHitRatio() {
+    double hits = hitCounter.count();
+    double total = hits + revalidatedCounter.count() + missCounter.count();
+    return total == 0 ? 0 : hits / total;
+  }
+
+  private void evict(EntityCacheKey key) {
+    nearCache.invalidate(key);
+    if (distributedCache != null) {
+      distributedCache.evict(key);
+    }
+  }
+
+  private EntityCacheKey key(Integer tenantId, Serializable id) {
+    return new EntityCacheKey(entityType.getName(), tenantId, id);
+  }
+
+  /** Near cache entry, with when it was loaded or last checked against the database */
+  static final class Entry<E> {
+    private final E entity;
+    private final long verifiedAt;
+
+    private Entry(E entity, long verifiedAt) {
+      this.entity = entity;
+      this.verifiedAt = verifiedAt;
+    }
+  }
+}
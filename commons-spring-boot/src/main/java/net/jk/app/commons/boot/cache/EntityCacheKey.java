@@ -0,0 +1,20 @@
+package net.jk.app.commons.boot.cache;
+
+import java.io.Serializable;
+import lombok.Value;
+
+/** Key of a cached entity, scoped by entity type and tenant */
+@Value
+public class EntityCacheKey implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Fully qualified name of the entity class */
+  private String entityType;
+
+  /** Tenant the entity belongs to, null for entities that are not tenant-specific */
+  private Integer tenantId;
+
+  /** Id the entity is looked up by */
+  private Serializable id;
+}
@@ -0,0 +1,57 @@
+package net.jk.app.commons.boot.cache;
+
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the {@link EntityCache} of every entity type on first use, with a size-bounded near
+ * cache and the {@link IDistributedEntityCache} bean as second tier, if there is one
+ *
+ * <p>Near cache entries are served without checking their version for {@code
+ * voila.cache.entity.verify-interval-seconds} after being loaded or checked, 0 checks on every
+ * lookup. They expire {@code voila.cache.entity.expire-after-write-seconds} after being loaded,
+ * which bounds how long entities without a version column may be served after a change made by
+ * another instance
+ */
+@Component
+public class EntityCacheManager {
+
+  @Value("${voila.cache.entity.maximum-size:10000}")
+  private long maximumSize;
+
+  @Value("${voila.cache.entity.expire-after-write-seconds:600}")
+  private long expireAfterWriteSeconds;
+
+  @Value("${voila.cache.entity.verify-interval-seconds:5}")
+  private long verifyIntervalSeconds;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Autowired(required = false)
+  private IDistributedEntityCache distributedCache;
+
+  private final ConcurrentMap<Class<?>, EntityCache<?>> caches = new ConcurrentHashMap<>();
+
+  @SuppressWarnings("unchecked")
+  public <E> EntityCache<E> getCache(Class<E> entityType) {
+    return (EntityCache<E>) caches.computeIfAbsent(entityType, this::createCache);
+  }
+
+  private <E> EntityCache<E> createCache(Class<E> entityType) {
+    return new EntityCache<>(
+        entityType,
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+            .<EntityCacheKey, EntityCache.Entry<E>>build(),
+        distributedCache,
+        TimeUnit.SECONDS.toMillis(verifyIntervalSeconds),
+        meterRegistry);
+  }
+}
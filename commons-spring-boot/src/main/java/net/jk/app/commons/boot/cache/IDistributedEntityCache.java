@@ -0,0 +1,20 @@
+package net.jk.app.commons.boot.cache;
+
+import java.util.Optional;
+
+/**
+ * Optional cache tier shared between all instances of a service, behind the per-instance near
+ * caches of {@link EntityCacheManager}. Enabled by registering an implementation as a bean, e.g.
+ * backed by Redis or Hazelcast
+ *
+ * <p>Entries are detached entities. They are checked against the database version before being
+ * served, so an implementation may drop entries at any time and does not need to be transactional
+ */
+public interface IDistributedEntityCache {
+
+  Optional<Object> get(EntityCacheKey key);
+
+  void put(EntityCacheKey key, Object entity);
+
+  void evict(EntityCacheKey key);
+}
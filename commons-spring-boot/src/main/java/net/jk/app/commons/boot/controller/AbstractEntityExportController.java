@@ -0,0 +1,149 @@
+package net.jk.app.commons.boot.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import net.jk.app.commons.boot.security.domain.IApplicationUser;
+import net.jk.app.commons.boot.service.ICrudServiceV2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Base controller exposing NDJSON and CSV exports of all entities a user may read, filtered by the
+ * request parameters
+ *
+ * <p>Entities are written as they are read through {@link ICrudServiceV2#stream}, so exports of any
+ * size run in constant heap. The response is written on the MVC async executor, which means {@code
+ * spring.mvc.async.request-timeout} has to allow for the largest export
+ *
+ * @param <E> DB entity type
+ */
+public abstract class AbstractEntityExportController<E> {
+
+  public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+  public static final String TEXT_CSV_VALUE = "text/csv";
+
+  @Autowired protected ObjectMapper objectMapper;
+
+  /** Service the entities are exported from */
+  protected abstract ICrudServiceV2<E, ?, ?, ?> getService();
+
+  /** User the export runs for, resolved on the request thread */
+  protected abstract IApplicationUser getUser(HttpServletRequest request);
+
+  /** Columns of the CSV export, as property names of the entity's JSON representation */
+  protected abstract List<String> getCsvColumns();
+
+  /** Base name of the downloaded file */
+  protected abstract String getExportFileName();
+
+  @GetMapping(value = "/export", produces = APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> exportNdjson(
+      HttpServletRequest request, @RequestParam Map<String, String> filter) {
+    IApplicationUser user = getUser(request);
+    // the generator buffers, the servlet container decides when to send
+    ObjectWriter writer =
+        objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    StreamingResponseBody body =
+        out -> {
+          try (JsonGenerator generator = writer.getFactory().createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            getService()
+                .stream(
+                    user,
+                    new HashMap<>(filter),
+                    e -> {
+                      try {
+                        writer.writeValue(generator, e);
+                        generator.writeRaw('\n');
+                      } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                      }
+                    });
+          }
+        };
+    return export(body, APPLICATION_NDJSON_VALUE, ".ndjson");
+  }
+
+  @GetMapping(value = "/export", produces = TEXT_CSV_VALUE)
+  public ResponseEntity<StreamingResponseBody> exportCsv(
+      HttpServletRequest request, @RequestParam Map<String, String> filter) {
+    IApplicationUser user = getUser(request);
+    List<String> columns = getCsvColumns();
+    StreamingResponseBody body =
+        out -> {
+          Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+          writeCsvRow(writer, columns);
+          getService()
+              .stream(
+                  user,
+                  new HashMap<>(filter),
+                  e -> {
+                    JsonNode node = objectMapper.valueToTree(e);
+                    String[] values = new String[columns.size()];
+                    for (int i = 0; i < values.length; i++) {
+                      JsonNode value = node.get(columns.get(i));
+                      values[i] =
+                          value == null || value.isNull()
+                              ? ""
+                              : value.isValueNode() ? value.asText() : value.toString();
+                    }
+                    try {
+                      writeCsvRow(writer, List.of(values));
+                    } catch (IOException ex) {
+                      throw new UncheckedIOException(ex);
+                    }
+                  });
+          writer.flush();
+        };
+    return export(body, TEXT_CSV_VALUE, ".csv");
+  }
+
+  private ResponseEntity<StreamingResponseBody> export(
+      StreamingResponseBody body, String mediaType, String extension) {
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(mediaType))
+        .header(
+            HttpHeaders.CONTENT_DISPOSITION,
+            "attachment; filename=\"" + getExportFileName() + extension + "\"")
+        .body(body);
+  }
+
+  // RFC 4180: quote values containing separators, quotes or line breaks
+  private static void writeCsvRow(Writer writer, List<String> values) throws IOException {
+    for (int i = 0; i < values.size(); i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      String value = values.get(i);
+      if (value.indexOf(',') >= 0
+          || value.indexOf('"') >= 0
+          || value.indexOf('\n') >= 0
+          || value.indexOf('\r') >= 0) {
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+      } else {
+        writer.write(value);
+      }
+    }
+    writer.write("\r\n");
+  }
+}
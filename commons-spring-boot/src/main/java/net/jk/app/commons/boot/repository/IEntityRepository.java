@@ -1,10 +1,53 @@
 package net.jk.app.commons.boot.repository;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
 /** Minimalistic interface for data repostories (DAOs) */
 public interface IEntityRepository<E, ID> {
 
   Iterable<E> findAll();
 
+  /**
+   * Keyset pagination support, finds the entities matching the query with an id greater than
+   * {@link PageQuery#getAfter()} in id order, without scanning the skipped rows
+   */
+  KeysetPage<E> findPage(PageQuery query);
+
+  /**
+   * Streams the entities matching the query in id order, reading {@link PageQuery#getSize()} rows
+   * from the database at a time. Entities of a batch are detached once the next batch is read, so
+   * the stream has to be consumed sequentially, within a transaction, and closed
+   */
+  Stream<E> stream(PageQuery query);
+
+  /**
+   * Set-based existence check, returns those of the given attribute -> value combinations that
+   * match an existing entity, in one query
+   *
+   * @param tenantId tenant the entities have to belong to, null to not restrict by tenant
+   */
+  Set<Map<String, Object>> findExistingCombinations(
+      Integer tenantId, Collection<Map<String, Object>> combinations);
+
+  /**
+   * Names of the persistent attributes of basic type, the ones queries can compare with values.
+   * Excludes transient fields, associations and embedded attributes
+   */
+  Set<String> getAttributeNames();
+
+  /** Id of the given entity */
+  Object getEntityId(E entity);
+
+  /**
+   * Checks a possibly stale copy of an entity against the database, true if a row with its id and
+   * version still exists. Entity types without a version attribute can not be checked and are
+   * always reported as current
+   */
+  boolean isCurrentVersion(E entity);
+
   <S extends E> S save(S entity);
 
   /*
@@ -0,0 +1,23 @@
+package net.jk.app.commons.boot.repository;
+
+import java.util.List;
+import lombok.Value;
+
+/**
+ * One page of entities in id order, together with the cursor to pass as {@link
+ * PageQuery#getAfter()} to get the next page
+ *
+ * @param <E> DB entity type
+ */
+@Value
+public class KeysetPage<E> {
+
+  private List<E> items;
+
+  /** Id to continue after, null if this is the last page */
+  private String nextCursor;
+
+  public boolean hasNext() {
+    return nextCursor != null;
+  }
+}
@@ -0,0 +1,33 @@
+package net.jk.app.commons.boot.repository;
+
+import java.util.Map;
+import java.util.Set;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Query for one page of entities in id order. Every restriction is meant to be evaluated by the
+ * database, so only the rows of the page are ever loaded
+ *
+ * <p>The cursor is the id of the last entity of the previous page in its string form, so it can be
+ * handed to REST clients as is
+ */
+@Value
+@Builder
+public class PageQuery {
+
+  /** Id of the last entity of the previous page, null for the first page */
+  private String after;
+
+  /** Maximum number of entities in the page */
+  private int size;
+
+  /** Tenant the entities have to belong to, null to not restrict by tenant */
+  private Integer tenantId;
+
+  /** attribute -> value pairs the entities have to match */
+  @Builder.Default private Map<String, Object> filter = Map.of();
+
+  /** attribute -> allowed values, an empty set of values matches nothing */
+  @Builder.Default private Map<String, Set<Object>> restrictions = Map.of();
+}
@@ -15,4 +15,17 @@ public interface IDataPermission {
   default boolean isFullAcess() {
     return false;
   }
+
+  /**
+   * Entity attribute this permission grants access by (e.g. a region ID column), so it can be
+   * pushed down into DB queries. Null if the permission cannot be expressed as a query parameter
+   */
+  default String getAttributeName() {
+    return null;
+  }
+
+  /** Value of {@link #getAttributeName()} the user is granted access to */
+  default Object getAttributeValue() {
+    return null;
+  }
 }
@@ -3,36 +3,57 @@ package net.jk.app.commons.boot.service;
 import static org.springframework.util.StringUtils.concatenateStringArrays;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.Serializable;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import javax.validation.Validator;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import net.jk.app.commons.boot.cache.EntityCache;
+import net.jk.app.commons.boot.cache.EntityCacheManager;
 import net.jk.app.commons.boot.domain.IAuditTrail;
 import net.jk.app.commons.boot.domain.ITenantEntity;
 import net.jk.app.commons.boot.domain.NonUpdateable;
 import net.jk.app.commons.boot.exception.EntityExistsException;
 import net.jk.app.commons.boot.exception.EntityNotFoundException;
+import net.jk.app.commons.boot.exception.InvalidRequestException;
 import net.jk.app.commons.boot.exception.NonUpdateableFieldViolationException;
 import net.jk.app.commons.boot.exception.ServerRuntimeException;
+import net.jk.app.commons.boot.exception.VoilaError;
 import net.jk.app.commons.boot.repository.IEntityRepository;
+import net.jk.app.commons.boot.repository.KeysetPage;
+import net.jk.app.commons.boot.repository.PageQuery;
 import net.jk.app.commons.boot.security.domain.IApplicationUser;
+import net.jk.app.commons.boot.security.permissions.IDataPermission;
 import net.jk.app.commons.boot.utils.Assertions;
+import net.jk.app.commons.boot.utils.PropertyAccessors;
+import net.jk.app.commons.boot.utils.PropertyCopier;
 import org.reflections.ReflectionUtils;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * An abstract implementation of the {@link ICrudService} for services that represent database
@@ -44,6 +65,7 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
 
   @Autowired protected AuditTrailService auditTrailService;
   @Autowired protected Validator entityValidator;
+  @Autowired protected EntityCacheManager entityCacheManager;
 
   @Getter(AccessLevel.PROTECTED)
   private final Class<E> entityType;
@@ -51,9 +73,28 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
   /** Required for data access operations */
   protected abstract IEntityRepository<E, ?> getRepository();
 
+  /** Upper bound for the page size requested from {@link #getPage} */
+  protected static final int MAX_PAGE_SIZE = 1000;
+
+  /** Number of rows read from the database at a time by {@link #stream} */
+  protected static final int STREAM_FETCH_SIZE = 500;
+
+  /** Batches of at least this many entities are validated in parallel by {@link #addAll} */
+  protected static final int PARALLEL_VALIDATION_THRESHOLD = 256;
+
+  /** Maximum number of create dtos checked for conflicts with one query */
+  protected static final int CONFLICT_LOOKUP_CHUNK_SIZE = 500;
+
   protected final ImmutableSet<Field> nonUpdateableFields;
   protected final String[] nonUpdateableFieldNames;
 
+  // dto -> entity mappings, compiled once per dto type
+  private final ConcurrentMap<Class<?>, PropertyCopier> createCopiers = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Class<?>, PropertyCopier> updateCopiers = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Class<?>, List<NonUpdateableCheck>> nonUpdateableChecks =
+      new ConcurrentHashMap<>();
+  private volatile Supplier<E> entityConstructor;
+
   public AbstractEntityCrudServiceV2() {
     // get generic types for entity & relevant DTOs (workaround generics erasure)
     entityType =
@@ -103,7 +144,11 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
 
   @Override
   public Set<E> addAll(IApplicationUser user, Collection<C> createDtos) {
-    return createDtos.stream().map(c -> add(user, c)).collect(Collectors.toSet());
+    checkForExistingConflictingEntities(user, createDtos);
+
+    List<E> entities =
+        createDtos.stream().map(c -> prepareEntityForAdd(user, c)).collect(Collectors.toList());
+    return doAddAll(user, entities);
   }
 
   @Override
@@ -114,9 +159,64 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
         .collect(Collectors.toList());
   }
 
+  @Override
+  public KeysetPage<E> getPage(
+      IApplicationUser user, String after, int size, Map<String, Object> filter) {
+    if (size < 1) {
+      throw new InvalidRequestException(VoilaError.MIN_NUMERIC_VALUE_REQUIRED, "size", 1);
+    }
+    KeysetPage<E> page =
+        getRepository()
+            .findPage(
+                createReadQuery(user, filter)
+                    .after(after)
+                    .size(Math.min(size, MAX_PAGE_SIZE))
+                    .build());
+
+    // the database only narrows down the rows, entity-level permissions still have the last word
+    List<E> items =
+        page.getItems()
+            .stream()
+            .filter(e -> isAuthorized(user, e, OperationType.READ))
+            .collect(Collectors.toList());
+    return new KeysetPage<>(items, page.getNextCursor());
+  }
+
+  @Override
+  public void stream(
+      IApplicationUser user, Map<String, Object> filter, Consumer<? super E> consumer) {
+    // outside a transaction the driver ignores the fetch size and loads every row at once
+    if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+      throw new ServerRuntimeException(
+          "{0} entities can only be streamed within a transaction",
+          getEntityType().getSimpleName());
+    }
+    PageQuery query = createReadQuery(user, filter).size(STREAM_FETCH_SIZE).build();
+    try (Stream<E> entities = getRepository().stream(query)) {
+      entities.filter(e -> isAuthorized(user, e, OperationType.READ)).forEach(consumer);
+    }
+  }
+
+  /** Query for the entities matching the filter, restricted to what the user may read */
+  protected PageQuery.PageQueryBuilder createReadQuery(
+      IApplicationUser user, Map<String, Object> filter) {
+    Set<String> filterable = getFilterableAttributes();
+    Set<String> persistent = getRepository().getAttributeNames();
+    for (String attribute : filter.keySet()) {
+      if (!filterable.contains(attribute) || !persistent.contains(attribute)) {
+        throw new InvalidRequestException(VoilaError.FIELD_NOT_FOUND, attribute);
+      }
+    }
+    return PageQuery.builder()
+        .tenantId(getTenantScope(user))
+        .filter(filter)
+        .restrictions(getDataPermissionRestrictions(user));
+  }
+
   @Override
   public Optional<E> getById(IApplicationUser user, ID id) {
-    return getEntityById(user, id).filter(e -> isAuthorized(user, e, OperationType.READ));
+    Optional<E> entity = isCacheUsable() ? getCachedEntityById(user, id) : getEntityById(user, id);
+    return entity.filter(e -> isAuthorized(user, e, OperationType.READ));
   }
 
   @Override
@@ -136,6 +236,7 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
   public void delete(IApplicationUser user, E entity) {
     Assertions.isAuthorized(isAuthorized(user, entity, OperationType.DELETE));
     getRepository().delete(entity);
+    evictFromCache(entity);
   }
 
   protected E doAdd(IApplicationUser user, E entity) {
@@ -143,12 +244,35 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
     Assertions.isValid(entityValidator.validate(entity));
 
     entity = getRepository().save(entity);
+    evictFromCache(entity);
 
     postAdd(user, entity);
     postAddOrUpdate(user, entity);
     return entity;
   }
 
+  protected Set<E> doAddAll(IApplicationUser user, List<E> entities) {
+    // entities are prepared on the calling thread, only the stateless validation runs in parallel
+    Stream<E> validated =
+        entities.size() < PARALLEL_VALIDATION_THRESHOLD
+            ? entities.stream()
+            : entities.parallelStream();
+    Assertions.isValid(
+        validated
+            .flatMap(e -> entityValidator.validate(e).stream())
+            .collect(Collectors.toSet()));
+
+    // a single saveAll lets the JPA provider group the inserts into JDBC batches
+    Set<E> added = new HashSet<>();
+    for (E entity : getRepository().saveAll(entities)) {
+      evictFromCache(entity);
+      postAdd(user, entity);
+      postAddOrUpdate(user, entity);
+      added.add(entity);
+    }
+    return added;
+  }
+
   // prepares entity for update operation without actually updating it (yet)
   protected E prepareEntityForUpdate(IApplicationUser user, ID id, U updateDto) {
     E entity = getExistingEntityById(user, id);
@@ -164,6 +288,71 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
     }
   }
 
+  protected void checkForExistingConflictingEntities(
+      IApplicationUser user, Collection<C> createDtos) {
+    // duplicates within the batch would conflict with each other once saved
+    Set<Map<String, Object>> batchFinderValues = new HashSet<>();
+    for (C createDto : createDtos) {
+      Map<String, Object> finderValues = getDtoFinderValues(createDto);
+      if (!batchFinderValues.add(finderValues)) {
+        throw new EntityExistsException(getEntityType(), finderValues);
+      }
+    }
+
+    List<C> conflicting = getExistingConflictingDtos(user, createDtos);
+    if (!conflicting.isEmpty()) {
+      throw new EntityExistsException(getEntityType(), getDtoFinderValues(conflicting.get(0)));
+    }
+  }
+
+  /**
+   * Finds the create dtos that conflict with existing entities. When every finder value names a
+   * persistent attribute of the entity, all dtos are matched at once with {@link
+   * #findConflictingDtosByFinderValues}; otherwise every dto is looked up on its own with {@link
+   * #getExistingConflictingEntity}. Services whose finder values match by anything but equality
+   * have to override this
+   */
+  protected List<C> getExistingConflictingDtos(IApplicationUser user, Collection<C> createDtos) {
+    Set<String> attributeNames = getRepository().getAttributeNames();
+    boolean setBased =
+        createDtos
+            .stream()
+            .map(this::getDtoFinderValues)
+            .allMatch(f -> !f.isEmpty() && attributeNames.containsAll(f.keySet()));
+    if (setBased) {
+      return findConflictingDtosByFinderValues(user, createDtos);
+    }
+    return createDtos
+        .stream()
+        .filter(c -> getExistingConflictingEntity(user, c).isPresent())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Set-based conflict lookup, matching the {@link #getDtoFinderValues} of all create dtos against
+   * the entity attributes of the same name with one query per {@link #CONFLICT_LOOKUP_CHUNK_SIZE}
+   * dtos. Tenant entities are only compared within the user's tenant
+   */
+  protected List<C> findConflictingDtosByFinderValues(
+      IApplicationUser user, Collection<C> createDtos) {
+    Map<Map<String, Object>, C> byFinderValues = new LinkedHashMap<>();
+    createDtos.forEach(c -> byFinderValues.put(getDtoFinderValues(c), c));
+    Integer tenantId =
+        ITenantEntity.class.isAssignableFrom(getEntityType()) ? user.getTenantId() : null;
+
+    Set<Map<String, Object>> existing = new HashSet<>();
+    for (List<Map<String, Object>> chunk :
+        Iterables.partition(byFinderValues.keySet(), CONFLICT_LOOKUP_CHUNK_SIZE)) {
+      existing.addAll(getRepository().findExistingCombinations(tenantId, chunk));
+    }
+    return byFinderValues
+        .entrySet()
+        .stream()
+        .filter(entry -> existing.contains(entry.getKey()))
+        .map(Map.Entry::getValue)
+        .collect(Collectors.toList());
+  }
+
   /**
    * Allow to update DB entity directly, in cases where other services need to manipulate it
    * directly
@@ -180,6 +369,7 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
     Assertions.isValid(entityValidator.validate(entity));
 
     entity = getRepository().save(entity);
+    evictFromCache(entity);
 
     postUpdate(user, entity);
     postAddOrUpdate(user, entity);
@@ -189,8 +379,12 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
   /** Map the create dto to the entity object */
   protected E createDtoToEntity(IApplicationUser user, C createDto) {
 
-    E entity = constructInstance(getEntityType());
-    BeanUtils.copyProperties(createDto, entity, ignoreOnCopyProperties());
+    E entity = constructEntity();
+    createCopiers
+        .computeIfAbsent(
+            createDto.getClass(),
+            type -> PropertyCopier.of(type, getEntityType(), ignoreOnCopyProperties()))
+        .copy(createDto, entity);
 
     return entity;
   }
@@ -203,6 +397,8 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
    * from source to target even if the underlying types are different. This may not be desirable in
    * some of the JPA use-cases</i>
    *
+   * <p>Read once per dto type, when its mapping to the entity is compiled
+   *
    * @return
    */
   protected String[] ignoreOnCopyProperties() {
@@ -212,15 +408,45 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
   /** Map the update dto to the entity object */
   protected E updateDtoToEntity(IApplicationUser user, U updateDto, E entity) {
     // exclude non-updateable fields by default
-    nonUpdateableFields.forEach(f -> verifyNonUpdateableField(updateDto, entity, f));
-
-    BeanUtils.copyProperties(
-        updateDto,
-        entity,
-        concatenateStringArrays(ignoreOnCopyProperties(), nonUpdateableFieldNames));
+    List<NonUpdateableCheck> checks =
+        nonUpdateableChecks.computeIfAbsent(updateDto.getClass(), this::createNonUpdateableChecks);
+    checks.forEach(check -> check.verify(updateDto, entity));
+
+    updateCopiers
+        .computeIfAbsent(
+            updateDto.getClass(),
+            type ->
+                PropertyCopier.of(
+                    type,
+                    getEntityType(),
+                    concatenateStringArrays(ignoreOnCopyProperties(), nonUpdateableFieldNames)))
+        .copy(updateDto, entity);
     return entity;
   }
 
+  /**
+   * Whether {@link #getById} and {@link #getExistingById} may serve entities from the entity cache,
+   * meant for hot reference data. Entities served from the cache are detached and shared between
+   * callers, so they must be treated as read-only and not rely on lazy associations
+   *
+   * <p>Changes made through this service evict the entity at once. Changes made by other
+   * instances are caught by checking the version column of cached entities, at most once per
+   * {@code voila.cache.entity.verify-interval-seconds}. Entities without one are only evicted when
+   * they expire
+   */
+  protected boolean isCacheable() {
+    return false;
+  }
+
+  /**
+   * Id of the entity as passed to {@link #getById}, to evict it from the entity cache. Defaults to
+   * the repository id, services looking entities up by another id have to override it
+   */
+  @SuppressWarnings("unchecked")
+  protected ID getCacheId(E entity) {
+    return (ID) getRepository().getEntityId(entity);
+  }
+
   protected void populateTenantData(IApplicationUser user, E entity) {
     if (ITenantEntity.class.isAssignableFrom(entity.getClass())) {
       ITenantEntity tenantEntity = (ITenantEntity) entity;
@@ -228,6 +454,50 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
     }
   }
 
+  /**
+   * Allow-list of the entity attributes users may filter {@link #getPage} and {@link #stream} by,
+   * any other filter is rejected as unknown field. Defaults to none, services enable the attributes
+   * that are safe to expose, which must never include secrets such as password hashes
+   */
+  protected Set<String> getFilterableAttributes() {
+    return Set.of();
+  }
+
+  /**
+   * Tenant the entities read by the user are restricted to in DB queries, null for no restriction.
+   * Defaults to the user's tenant for tenant entities, unless the user is a system admin
+   */
+  protected Integer getTenantScope(IApplicationUser user) {
+    if (ITenantEntity.class.isAssignableFrom(getEntityType()) && !user.isSystemAdmin()) {
+      return user.getTenantId();
+    }
+    return null;
+  }
+
+  /**
+   * attribute -> allowed values the entities read by the user are restricted to in DB queries.
+   * Built from the user's data permissions that name a persistent attribute of the entity,
+   * permission types the user has full access for are not restricted
+   */
+  protected Map<String, Set<Object>> getDataPermissionRestrictions(IApplicationUser user) {
+    Map<String, Set<Object>> restrictions = new HashMap<>();
+    Set<String> attributes = getRepository().getAttributeNames();
+    user.getDataPermissions()
+        .asMap()
+        .values()
+        .stream()
+        .filter(permissions -> permissions.stream().noneMatch(IDataPermission::isFullAcess))
+        .flatMap(Collection::stream)
+        .filter(p -> p.getAttributeName() != null)
+        .filter(p -> attributes.contains(p.getAttributeName()))
+        .forEach(
+            p ->
+                restrictions
+                    .computeIfAbsent(p.getAttributeName(), a -> new HashSet<>())
+                    .add(p.getAttributeValue()));
+    return restrictions;
+  }
+
   protected void populateAuditData(IApplicationUser user, Object entity) {
     if (IAuditTrail.class.isAssignableFrom(entity.getClass())) {
       auditTrailService.process(user, (IAuditTrail) entity);
@@ -269,44 +539,111 @@ public abstract class AbstractEntityCrudServiceV2<E, C, U, ID extends Serializab
   /** Post add or update method to customize any logic */
   protected void postAddOrUpdate(IApplicationUser user, E entity) {}
 
+  // read-write transactions expect managed entities and must not cache uncommitted state
+  private boolean isCacheUsable() {
+    return isCacheable()
+        && (!TransactionSynchronizationManager.isActualTransactionActive()
+            || TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+  }
+
+  private Optional<E> getCachedEntityById(IApplicationUser user, ID id) {
+    EntityCache<E> cache = entityCacheManager.getCache(getEntityType());
+    Integer tenantId =
+        ITenantEntity.class.isAssignableFrom(getEntityType()) ? user.getTenantId() : null;
+    Optional<E> cached = cache.get(tenantId, id, getRepository()::isCurrentVersion);
+    if (cached.isPresent()) {
+      return cached;
+    }
+    Optional<E> entity = getEntityById(user, id);
+    // keyed by the tenant of the entity, so it is only ever served to users of that tenant
+    entity.ifPresent(e -> cache.put(getCacheTenantId(e), id, e));
+    return entity;
+  }
+
+  private void evictFromCache(E entity) {
+    if (!isCacheable()) {
+      return;
+    }
+    EntityCache<E> cache = entityCacheManager.getCache(getEntityType());
+    Integer tenantId = getCacheTenantId(entity);
+    ID id = getCacheId(entity);
+    cache.evict(tenantId, id);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      // concurrent readers may have cached the old state again until the change is committed
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+              cache.evict(tenantId, id);
+            }
+          });
+    }
+  }
+
+  private static Integer getCacheTenantId(Object entity) {
+    return entity instanceof ITenantEntity ? ((ITenantEntity) entity).getTenantId() : null;
+  }
+
   @SuppressFBWarnings("EXS")
-  private <T> T constructInstance(Class<T> tClass) {
-    try {
-      return tClass.getDeclaredConstructor().newInstance();
-    } catch (InstantiationException
-        | IllegalAccessException
-        | IllegalArgumentException
-        | InvocationTargetException
-        | NoSuchMethodException
-        | SecurityException e) {
-      // should never happens, means default constructor is missing
-      throw new ServerRuntimeException(
-          "Unable to instantiate object of type " + tClass.getSimpleName(), e);
+  private E constructEntity() {
+    Supplier<E> constructor = entityConstructor;
+    if (constructor == null) {
+      try {
+        constructor = PropertyAccessors.constructor(getEntityType());
+      } catch (NoSuchMethodException | RuntimeException e) {
+        // should never happens, means default constructor is missing
+        throw new ServerRuntimeException(
+            "Unable to instantiate object of type " + getEntityType().getSimpleName(), e);
+      }
+      entityConstructor = constructor;
     }
+    return constructor.get();
   }
 
-  // basic check to throw 409 Conflict error on common data types
-  private void verifyNonUpdateableField(U input, E entity, Field field) {
-    try {
-      Field inputSource = input.getClass().getDeclaredField(field.getName());
-      inputSource.setAccessible(true);
-
-      // only compare if types are identical
-      if (field.getType().equals(inputSource.getType())) {
-        Object inputValue = inputSource.get(input);
-        Object existingValue = field.get(entity);
-
-        if (!Objects.equals(inputValue, existingValue)) {
-          throw new NonUpdateableFieldViolationException(field.getName());
+  private List<NonUpdateableCheck> createNonUpdateableChecks(Class<?> inputType) {
+    List<NonUpdateableCheck> checks = new ArrayList<>();
+    for (Field field : nonUpdateableFields) {
+      try {
+        Field inputSource = inputType.getDeclaredField(field.getName());
+
+        // only compare if types are identical
+        if (field.getType().equals(inputSource.getType())) {
+          checks.add(
+              new NonUpdateableCheck(
+                  field.getName(),
+                  PropertyAccessors.fieldReader(inputSource),
+                  PropertyAccessors.fieldReader(field)));
         }
+      } catch (NoSuchFieldException e) {
+        // safely ignore then
+        log.debug(
+            "Failed to compare field {} on class {}",
+            field.getName(),
+            getEntityType().getSimpleName());
       }
+    }
+    return checks;
+  }
 
-    } catch (NoSuchFieldException | IllegalAccessException e) {
-      // safely ignore then
-      log.debug(
-          "Failed to compare field {} on class {}",
-          field.getName(),
-          entity.getClass().getSimpleName());
+  // basic check to throw 409 Conflict error on common data types
+  private static final class NonUpdateableCheck {
+    private final String fieldName;
+    private final Function<Object, Object> inputValue;
+    private final Function<Object, Object> existingValue;
+
+    private NonUpdateableCheck(
+        String fieldName,
+        Function<Object, Object> inputValue,
+        Function<Object, Object> existingValue) {
+      this.fieldName = fieldName;
+      this.inputValue = inputValue;
+      this.existingValue = existingValue;
+    }
+
+    private void verify(Object input, Object entity) {
+      if (!Objects.equals(inputValue.apply(input), existingValue.apply(entity))) {
+        throw new NonUpdateableFieldViolationException(fieldName);
+      }
     }
   }
 }
@@ -3,8 +3,12 @@ package net.jk.app.commons.boot.service;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import net.jk.app.commons.boot.repository.KeysetPage;
 import net.jk.app.commons.boot.security.domain.IApplicationUser;
 
 /**
@@ -34,6 +38,33 @@ public interface ICrudServiceV2<E, C, U, ID extends Serializable> {
    */
   List<E> getAll(IApplicationUser user);
 
+  /**
+   * Should be a read-only transaction and idempotent.
+   *
+   * <p>Retrieves one page of the objects the requesting user is authorized to view, in id order,
+   * with the tenant and data permission restrictions evaluated by the database
+   *
+   * @param after cursor returned with the previous page, null for the first page
+   * @param size maximum number of objects in the page
+   * @param filter attribute -> value pairs the objects have to match, limited to the attributes the
+   *     service declares filterable
+   */
+  KeysetPage<E> getPage(
+      IApplicationUser user, @Nullable String after, int size, Map<String, Object> filter);
+
+  /**
+   * Should be a read-only transaction, so that it runs on the read replica. Has to run in a
+   * transaction, as the rows are only fetched in batches within one
+   *
+   * <p>Hands every object the requesting user is authorized to view and that matches the filter to
+   * the consumer, in id order, without ever holding all of them in memory. Objects are only valid
+   * for the duration of the consumer call
+   *
+   * @param filter attribute -> value pairs the objects have to match, limited to the attributes the
+   *     service declares filterable
+   */
+  void stream(IApplicationUser user, Map<String, Object> filter, Consumer<? super E> consumer);
+
   /**
    * Should be a read-only transaction and idempotent.
    *
@@ -0,0 +1,168 @@
+package net.jk.app.commons.boot.utils;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import net.jk.app.commons.boot.exception.ServerRuntimeException;
+
+/**
+ * Compiles getters, setters, field reads and default constructors into functional interfaces once,
+ * so calling them costs a plain interface call instead of a reflective invocation
+ *
+ * <p>Methods are bound with {@link LambdaMetafactory} in a lookup on their declaring class, which
+ * keeps the generated classes in the class loader of the bean. Where that is not possible (e.g. a
+ * non-public method of a JDK class) the reflective member is used instead.
+ */
+@SuppressFBWarnings("EXS")
+public final class PropertyAccessors {
+
+  private PropertyAccessors() {}
+
+  /** Returns {@code method} as function of the bean to the (boxed) property value */
+  @SuppressWarnings("unchecked")
+  public static Function<Object, Object> getter(Method method) {
+    try {
+      MethodHandles.Lookup lookup = lookupIn(method.getDeclaringClass());
+      MethodHandle handle = lookup.unreflect(method);
+      CallSite site =
+          LambdaMetafactory.metafactory(
+              lookup,
+              "apply",
+              MethodType.methodType(Function.class),
+              MethodType.methodType(Object.class, Object.class),
+              handle,
+              MethodType.methodType(wrap(method.getReturnType()), method.getDeclaringClass()));
+      return (Function<Object, Object>) site.getTarget().invoke();
+    } catch (Throwable t) {
+      method.setAccessible(true);
+      return bean -> {
+        try {
+          return method.invoke(bean);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+          throw new ServerRuntimeException("Unable to invoke " + method, e);
+        }
+      };
+    }
+  }
+
+  /** Returns {@code method} as consumer of the bean and the (boxed) property value */
+  @SuppressWarnings("unchecked")
+  public static BiConsumer<Object, Object> setter(Method method) {
+    try {
+      MethodHandles.Lookup lookup = lookupIn(method.getDeclaringClass());
+      MethodHandle handle = lookup.unreflect(method);
+      CallSite site =
+          LambdaMetafactory.metafactory(
+              lookup,
+              "accept",
+              MethodType.methodType(BiConsumer.class),
+              MethodType.methodType(void.class, Object.class, Object.class),
+              handle,
+              MethodType.methodType(
+                  void.class,
+                  method.getDeclaringClass(),
+                  wrap(method.getParameterTypes()[0])));
+      return (BiConsumer<Object, Object>) site.getTarget().invoke();
+    } catch (Throwable t) {
+      method.setAccessible(true);
+      return (bean, value) -> {
+        try {
+          method.invoke(bean, value);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+          throw new ServerRuntimeException("Unable to invoke " + method, e);
+        }
+      };
+    }
+  }
+
+  /** Returns a read of {@code field}, which may be private, as function of the bean */
+  public static Function<Object, Object> fieldReader(Field field) {
+    MethodHandle handle;
+    try {
+      handle =
+          lookupIn(field.getDeclaringClass())
+              .unreflectGetter(field)
+              .asType(MethodType.methodType(Object.class, Object.class));
+    } catch (IllegalAccessException e) {
+      field.setAccessible(true);
+      return bean -> {
+        try {
+          return field.get(bean);
+        } catch (IllegalAccessException ex) {
+          throw new ServerRuntimeException("Unable to read " + field, ex);
+        }
+      };
+    }
+    return bean -> {
+      try {
+        return (Object) handle.invokeExact(bean);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new ServerRuntimeException("Unable to read " + field, t);
+      }
+    };
+  }
+
+  /**
+   * Returns the default constructor of {@code type}, which may be non-public, as supplier
+   *
+   * @throws NoSuchMethodException if the type has no default constructor
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Supplier<T> constructor(Class<T> type) throws NoSuchMethodException {
+    MethodHandles.Lookup lookup;
+    MethodHandle handle;
+    try {
+      lookup = lookupIn(type);
+      handle = lookup.findConstructor(type, MethodType.methodType(void.class));
+    } catch (IllegalAccessException e) {
+      return reflectiveConstructor(type);
+    }
+    try {
+      CallSite site =
+          LambdaMetafactory.metafactory(
+              lookup,
+              "get",
+              MethodType.methodType(Supplier.class),
+              MethodType.methodType(Object.class),
+              handle,
+              MethodType.methodType(type));
+      return (Supplier<T>) site.getTarget().invoke();
+    } catch (Throwable t) {
+      return reflectiveConstructor(type);
+    }
+  }
+
+  private static <T> Supplier<T> reflectiveConstructor(Class<T> type)
+      throws NoSuchMethodException {
+    Constructor<T> constructor = type.getDeclaredConstructor();
+    constructor.setAccessible(true);
+    return () -> {
+      try {
+        return constructor.newInstance();
+      } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+        throw new ServerRuntimeException(
+            "Unable to instantiate object of type " + type.getSimpleName(), e);
+      }
+    };
+  }
+
+  private static MethodHandles.Lookup lookupIn(Class<?> type) throws IllegalAccessException {
+    return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+  }
+
+  private static Class<?> wrap(Class<?> type) {
+    return MethodType.methodType(type).wrap().returnType();
+  }
+}
@@ -0,0 +1,87 @@
+package net.jk.app.commons.boot.utils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.FatalBeanException;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Copies bean properties between a fixed pair of source and target types, with the same semantics
+ * as {@link BeanUtils#copyProperties(Object, Object, String...)}
+ *
+ * <p>Properties are matched once, when the copier is created: every writable target property that
+ * is not ignored and has a readable source property of an assignable type. Copying then calls the
+ * compiled accessors from {@link PropertyAccessors} without any introspection or reflection.
+ */
+public final class PropertyCopier {
+
+  private final Property[] properties;
+
+  private PropertyCopier(Property[] properties) {
+    this.properties = properties;
+  }
+
+  /**
+   * Creates a copier from {@code sourceType} to {@code targetType}
+   *
+   * @param ignoreProperties names of target properties to leave untouched, may be null
+   */
+  public static PropertyCopier of(
+      Class<?> sourceType, Class<?> targetType, String... ignoreProperties) {
+    List<String> ignored = ignoreProperties != null ? Arrays.asList(ignoreProperties) : List.of();
+    List<Property> properties = new ArrayList<>();
+    for (PropertyDescriptor targetPd : BeanUtils.getPropertyDescriptors(targetType)) {
+      Method writeMethod = targetPd.getWriteMethod();
+      if (writeMethod == null || ignored.contains(targetPd.getName())) {
+        continue;
+      }
+      PropertyDescriptor sourcePd = BeanUtils.getPropertyDescriptor(sourceType, targetPd.getName());
+      Method readMethod = sourcePd != null ? sourcePd.getReadMethod() : null;
+      if (readMethod != null
+          && ClassUtils.isAssignable(
+              writeMethod.getParameterTypes()[0], readMethod.getReturnType())) {
+        properties.add(
+            new Property(
+                targetPd.getName(),
+                PropertyAccessors.getter(readMethod),
+                PropertyAccessors.setter(writeMethod)));
+      }
+    }
+    return new PropertyCopier(properties.toArray(new Property[0]));
+  }
+
+  /**
+   * Copies the matched properties from {@code source} to {@code target}
+   *
+   * @throws FatalBeanException if a property could not be copied
+   */
+  public void copy(Object source, Object target) {
+    for (Property property : properties) {
+      try {
+        property.setter.accept(target, property.getter.apply(source));
+      } catch (RuntimeException e) {
+        throw new FatalBeanException(
+            "Could not copy property '" + property.name + "' from source to target", e);
+      }
+    }
+  }
+
+  private static final class Property {
+    private final String name;
+    private final Function<Object, Object> getter;
+    private final BiConsumer<Object, Object> setter;
+
+    private Property(
+        String name, Function<Object, Object> getter, BiConsumer<Object, Object> setter) {
+      this.name = name;
+      this.getter = getter;
+      this.setter = setter;
+    }
+  }
+}
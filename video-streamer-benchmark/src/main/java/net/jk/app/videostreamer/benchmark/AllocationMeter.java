@@ -0,0 +1,56 @@
+package net.jk.app.videostreamer.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the bytes allocated by the threads of the server, leaving out the players' own event
+ * loops and the thread driving the benchmark.
+ */
+final class AllocationMeter {
+
+  private final com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private final String excludedPrefix;
+
+  private final long excludedThread = Thread.currentThread().getId();
+
+  private Map<Long, Long> start = Map.of();
+
+  AllocationMeter(String excludedPrefix) {
+    this.excludedPrefix = excludedPrefix;
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  void start() {
+    start = snapshot();
+  }
+
+  /** Returns the bytes allocated since {@link #start()}, threads that ended meanwhile are lost. */
+  long getAllocatedBytes() {
+    long total = 0;
+    for (Map.Entry<Long, Long> entry : snapshot().entrySet()) {
+      total += entry.getValue() - start.getOrDefault(entry.getKey(), 0L);
+    }
+    return total;
+  }
+
+  private Map<Long, Long> snapshot() {
+    var ids = threads.getAllThreadIds();
+    var infos = threads.getThreadInfo(ids);
+    var allocated = threads.getThreadAllocatedBytes(ids);
+    Map<Long, Long> snapshot = new HashMap<>();
+    for (int i = 0; i < ids.length; i++) {
+      if (infos[i] == null
+          || allocated[i] < 0
+          || ids[i] == excludedThread
+          || infos[i].getThreadName().startsWith(excludedPrefix)) {
+        continue;
+      }
+      snapshot.put(ids[i], allocated[i]);
+    }
+    return snapshot;
+  }
+}
@@ -0,0 +1,57 @@
+package net.jk.app.videostreamer.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Collects what the players observe during one phase of the benchmark. */
+final class BenchmarkReport {
+
+  private final LongAdder requests = new LongAdder();
+
+  private final LongAdder errors = new LongAdder();
+
+  private final LongAdder bytes = new LongAdder();
+
+  private long[] timesToFirstByte = new long[1024];
+
+  private int count;
+
+  void record(long timeToFirstByteNanos, long received) {
+    requests.increment();
+    bytes.add(received);
+    synchronized (this) {
+      if (count == timesToFirstByte.length) {
+        timesToFirstByte = Arrays.copyOf(timesToFirstByte, count * 2);
+      }
+      timesToFirstByte[count++] = timeToFirstByteNanos;
+    }
+  }
+
+  void recordError() {
+    requests.increment();
+    errors.increment();
+  }
+
+  long getRequests() {
+    return requests.sum();
+  }
+
+  long getErrors() {
+    return errors.sum();
+  }
+
+  long getBytes() {
+    return bytes.sum();
+  }
+
+  /** Returns the time to first byte below which the given share of requests fall, in millis. */
+  synchronized double getTimeToFirstByteMillis(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    var sorted = Arrays.copyOf(timesToFirstByte, count);
+    Arrays.sort(sorted);
+    int index = (int) Math.min(count - 1, Math.ceil(percentile * count) - 1);
+    return sorted[Math.max(0, index)] / 1e6;
+  }
+}
@@ -0,0 +1,32 @@
+package net.jk.app.videostreamer.benchmark;
+
+import lombok.Value;
+
+/** Settings of a benchmark run, read from {@code benchmark.*} system properties. */
+@Value
+class BenchmarkSettings {
+  int players;
+  double seekRatio;
+  int files;
+  long fileSize;
+  int warmupSeconds;
+  int durationSeconds;
+  long thinkMs;
+  int clientThreads;
+
+  static BenchmarkSettings fromSystemProperties() {
+    return new BenchmarkSettings(
+        Integer.getInteger("benchmark.players", 32),
+        Double.parseDouble(System.getProperty("benchmark.seek-ratio", "0.25")),
+        Integer.getInteger("benchmark.files", 8),
+        Long.getLong("benchmark.file-size", 2L * 1024 * 1024 * 1024),
+        Integer.getInteger("benchmark.warmup-seconds", 10),
+        Integer.getInteger("benchmark.duration-seconds", 30),
+        Long.getLong("benchmark.think-ms", 0),
+        Integer.getInteger("benchmark.client-threads", 4));
+  }
+
+  int getSeekingPlayers() {
+    return (int) Math.round(players * seekRatio);
+  }
+}
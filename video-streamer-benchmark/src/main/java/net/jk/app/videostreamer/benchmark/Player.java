@@ -0,0 +1,93 @@
+package net.jk.app.videostreamer.benchmark;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+/**
+ * A simulated player asking for open-ended ranges of one movie, the way browsers do, and leaving
+ * the size of each range to the server.
+ */
+final class Player {
+
+  enum Pattern {
+    /** Reads the movie from start to end, one range after the other, then starts over. */
+    SEQUENTIAL,
+    /** Seeks to a random position before every range. */
+    SEEKING
+  }
+
+  private final HttpClient client;
+
+  private final String uri;
+
+  private final long size;
+
+  private final Pattern pattern;
+
+  private final long thinkMs;
+
+  private long position;
+
+  Player(HttpClient client, String uri, long size, Pattern pattern, long thinkMs) {
+    this.client = client;
+    this.uri = uri;
+    this.size = size;
+    this.pattern = pattern;
+    this.thinkMs = thinkMs;
+  }
+
+  /** Plays until the deadline, recording every range into the report. */
+  Mono<Void> play(long deadlineNanos, BenchmarkReport report) {
+    var range = Mono.defer(() -> fetch(report));
+    if (thinkMs > 0) {
+      range = range.delayElement(Duration.ofMillis(thinkMs));
+    }
+    return range.repeat(() -> System.nanoTime() < deadlineNanos).then();
+  }
+
+  private Mono<Long> fetch(BenchmarkReport report) {
+    long from =
+        pattern == Pattern.SEEKING ? ThreadLocalRandom.current().nextLong(size) : position;
+    long start = System.nanoTime();
+    var firstByte = new AtomicLong();
+    return client
+        .headers(headers -> headers.set(HttpHeaderNames.RANGE, "bytes=" + from + "-"))
+        .get()
+        .uri(uri)
+        .response(
+            (response, body) -> {
+              int status = response.status().code();
+              if (status != 200 && status != 206) {
+                return body.then(Mono.error(new IllegalStateException("Status " + status)));
+              }
+              return body.reduce(
+                  0L,
+                  (received, buffer) -> {
+                    if (received == 0) {
+                      firstByte.compareAndSet(0, System.nanoTime());
+                    }
+                    return received + buffer.readableBytes();
+                  });
+            })
+        .next()
+        .doOnNext(
+            received -> {
+              if (received == 0) {
+                report.recordError();
+              } else {
+                report.record(firstByte.get() - start, received);
+              }
+              position = received == 0 || from + received >= size ? 0 : from + received;
+            })
+        .onErrorResume(
+            e -> {
+              report.recordError();
+              position = 0;
+              return Mono.empty();
+            });
+  }
+}
@@ -0,0 +1,45 @@
+package net.jk.app.videostreamer.benchmark;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A temporary video root of sparse files. They take no disk space and read as zeros, which the
+ * streamer serves like any other movie since it never decodes what it sends.
+ */
+final class SparseLibrary implements AutoCloseable {
+
+  private final Path root;
+
+  private SparseLibrary(Path root) {
+    this.root = root;
+  }
+
+  static SparseLibrary create(int files, long fileSize) throws IOException {
+    var root = Files.createTempDirectory("voila-benchmark");
+    for (int i = 0; i < files; i++) {
+      var file = root.resolve(String.format("movie-%03d.mp4", i));
+      try (var out = new RandomAccessFile(file.toFile(), "rw")) {
+        out.setLength(fileSize);
+      }
+    }
+    return new SparseLibrary(root);
+  }
+
+  Path getRoot() {
+    return root;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try (Stream<Path> paths = Files.walk(root)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+}
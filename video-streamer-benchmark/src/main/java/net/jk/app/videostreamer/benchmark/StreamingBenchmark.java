@@ -0,0 +1,190 @@
+package net.jk.app.videostreamer.benchmark;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.jk.app.videostreamer.VideoStreamerApplication;
+import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.service.MovieCatalog;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * Measures the streaming path of {@code VideoController} and {@code ResourceRegionMessageWriter}
+ * end to end: the streamer runs in this JVM on a library of sparse files and is driven over HTTP
+ * by concurrent players.
+ *
+ * <p>The run warms up first and then reports, for the measured phase only, the time to first byte
+ * at p50 and p99, the sustained throughput, the bytes the server allocates per request and the
+ * share of bytes written with {@code sendfile}. Settings are listed in the module's README.
+ */
+public final class StreamingBenchmark {
+
+  private static final String CLIENT_THREADS = "benchmark-client";
+
+  private static final Duration CATALOG_TIMEOUT = Duration.ofMinutes(1);
+
+  private StreamingBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    var settings = BenchmarkSettings.fromSystemProperties();
+    // the benchmark brings its own configuration instead of asking the config server
+    System.setProperty("spring.cloud.config.enabled", "false");
+
+    try (var library = SparseLibrary.create(settings.getFiles(), settings.getFileSize())) {
+      var context =
+          new SpringApplicationBuilder(VideoStreamerApplication.class)
+              .bannerMode(Banner.Mode.OFF)
+              .properties(
+                  "server.port=0",
+                  "video.location=" + library.getRoot(),
+                  "video.hls.precompute=false")
+              .run(args);
+      try {
+        run(context, settings);
+      } finally {
+        context.close();
+      }
+    }
+  }
+
+  private static void run(ConfigurableApplicationContext context, BenchmarkSettings settings)
+      throws InterruptedException {
+    var movies = awaitCatalog(context.getBean(MovieCatalog.class), settings.getFiles());
+    int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+    var registry = context.getBean(MeterRegistry.class);
+
+    var loops = LoopResources.create(CLIENT_THREADS, settings.getClientThreads(), true);
+    var connections = ConnectionProvider.fixed("benchmark", settings.getPlayers());
+    var client =
+        HttpClient.create(connections).runOn(loops).baseUrl("http://127.0.0.1:" + port);
+    try {
+      runPhase(client, movies, settings, settings.getWarmupSeconds(), new BenchmarkReport());
+
+      var allocations = new AllocationMeter(CLIENT_THREADS);
+      var writtenBefore = getWrittenBytes(registry);
+      allocations.start();
+      var report = new BenchmarkReport();
+      long start = System.nanoTime();
+      runPhase(client, movies, settings, settings.getDurationSeconds(), report);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      long allocated = allocations.getAllocatedBytes();
+      var written = getWrittenBytes(registry);
+      written.replaceAll((path, bytes) -> bytes - writtenBefore.getOrDefault(path, 0.0));
+
+      print(settings, report, seconds, allocated, written);
+    } finally {
+      connections.dispose();
+      loops.dispose();
+    }
+  }
+
+  /** Waits for the initial scan, which runs in the background after startup. */
+  private static List<Movie> awaitCatalog(MovieCatalog catalog, int files)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + CATALOG_TIMEOUT.toNanos();
+    while (catalog.getMovies().size() < files) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("The catalog did not pick up the generated files");
+      }
+      TimeUnit.MILLISECONDS.sleep(100);
+    }
+    return catalog.getMovies();
+  }
+
+  private static void runPhase(
+      HttpClient client,
+      List<Movie> movies,
+      BenchmarkSettings settings,
+      int seconds,
+      BenchmarkReport report) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    List<Player> players = new ArrayList<>(settings.getPlayers());
+    for (int i = 0; i < settings.getPlayers(); i++) {
+      var movie = movies.get(i % movies.size());
+      var pattern =
+          i < settings.getSeekingPlayers() ? Player.Pattern.SEEKING : Player.Pattern.SEQUENTIAL;
+      players.add(
+          new Player(
+              client,
+              "/videos/" + movie.getPath(),
+              movie.getSize(),
+              pattern,
+              settings.getThinkMs()));
+    }
+    Flux.fromIterable(players)
+        .flatMap(player -> player.play(deadline, report), players.size())
+        .blockLast();
+  }
+
+  /** Returns the bytes the writer has sent so far, by path. */
+  private static Map<String, Double> getWrittenBytes(MeterRegistry registry) {
+    Map<String, Double> written = new HashMap<>();
+    for (Counter counter : registry.find("video.writer.bytes").counters()) {
+      written.merge(counter.getId().getTag("path"), counter.count(), Double::sum);
+    }
+    return written;
+  }
+
+  private static void print(
+      BenchmarkSettings settings,
+      BenchmarkReport report,
+      double seconds,
+      long allocated,
+      Map<String, Double> written) {
+    double total = written.values().stream().mapToDouble(Double::doubleValue).sum();
+    long succeeded = Math.max(1, report.getRequests() - report.getErrors());
+    var out = new StringBuilder();
+    out.append(
+            String.format(
+                Locale.ROOT,
+                "players      %d (%d seeking), %d files of %d MB, %d s%n",
+                settings.getPlayers(),
+                settings.getSeekingPlayers(),
+                settings.getFiles(),
+                settings.getFileSize() >> 20,
+                settings.getDurationSeconds()))
+        .append(
+            String.format(
+                Locale.ROOT,
+                "requests     %d, %d failed%n",
+                report.getRequests(),
+                report.getErrors()))
+        .append(
+            String.format(
+                Locale.ROOT,
+                "ttfb         p50 %.2f ms, p99 %.2f ms%n",
+                report.getTimeToFirstByteMillis(0.5),
+                report.getTimeToFirstByteMillis(0.99)))
+        .append(
+            String.format(
+                Locale.ROOT,
+                "throughput   %.1f MB/s%n",
+                report.getBytes() / seconds / (1024 * 1024)))
+        .append(
+            String.format(
+                Locale.ROOT, "allocations  %.1f KB/request%n", allocated / 1024.0 / succeeded))
+        .append(
+            String.format(
+                Locale.ROOT,
+                "zero-copy    %.1f %%%n",
+                total == 0 ? 0 : 100 * written.getOrDefault("zero-copy", 0.0) / total));
+    written.forEach(
+        (path, bytes) ->
+            out.append(
+                String.format(
+                    Locale.ROOT, "  %-10s %.1f MB%n", path, bytes / (1024 * 1024))));
+    System.out.print(out);
+  }
+}
@@ -0,0 +1,80 @@
+package net.jk.app.videostreamer.jmh;
+
+import java.util.concurrent.TimeUnit;
+import net.jk.app.videostreamer.config.RangeHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+/**
+ * The headers the writer sets on a single range response, built the way it used to and through
+ * {@link RangeHeaders}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class HeaderBuildingBenchmark {
+
+  private long start = 1_073_741_824L;
+
+  private long end = 1_140_850_687L;
+
+  private long length = 4_294_967_296L;
+
+  private FileSystemResource resource;
+
+  @Setup
+  public void setUp() {
+    resource = new FileSystemResource("/movies/The Movie (2020)/The Movie.mp4");
+  }
+
+  @Benchmark
+  public String contentRangeBuilder() {
+    return new StringBuilder()
+        .append("bytes ")
+        .append(start)
+        .append('-')
+        .append(end)
+        .append('/')
+        .append(length)
+        .toString();
+  }
+
+  @Benchmark
+  public String contentRange() {
+    return RangeHeaders.contentRange(start, end, length);
+  }
+
+  @Benchmark
+  public HttpHeaders headersUncached() {
+    var headers = new HttpHeaders();
+    headers.setContentType(
+        MediaTypeFactory.getMediaType(resource).orElse(MediaType.APPLICATION_OCTET_STREAM));
+    headers.add("Content-Range", "bytes " + start + '-' + end + '/' + length);
+    headers.setContentLength(end - start + 1);
+    return headers;
+  }
+
+  @Benchmark
+  public HttpHeaders headers() {
+    var headers = new HttpHeaders();
+    headers.setContentType(RangeHeaders.getMediaType(resource));
+    headers.set(HttpHeaders.CONTENT_RANGE, RangeHeaders.contentRange(start, end, length));
+    headers.setContentLength(end - start + 1);
+    return headers;
+  }
+}
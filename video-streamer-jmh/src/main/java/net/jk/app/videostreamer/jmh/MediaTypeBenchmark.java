@@ -0,0 +1,48 @@
+package net.jk.app.videostreamer.jmh;
+
+import java.util.concurrent.TimeUnit;
+import net.jk.app.videostreamer.config.RangeHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+/** Media type resolution of a movie file, per request and cached per file. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MediaTypeBenchmark {
+
+  @Param({"/movies/The Movie (2020)/The Movie.mp4", "/movies/Another Movie.mkv"})
+  public String path;
+
+  private FileSystemResource resource;
+
+  @Setup
+  public void setUp() {
+    resource = new FileSystemResource(path);
+  }
+
+  @Benchmark
+  public MediaType mediaTypeFactory() {
+    return MediaTypeFactory.getMediaType(resource).orElse(MediaType.APPLICATION_OCTET_STREAM);
+  }
+
+  @Benchmark
+  public MediaType rangeHeaders() {
+    return RangeHeaders.getMediaType(resource);
+  }
+}
@@ -0,0 +1,39 @@
+package net.jk.app.videostreamer.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.jk.app.videostreamer.config.RangeHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpRange;
+
+/** Parsing of the {@code Range} header forms players send. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class RangeParsingBenchmark {
+
+  @Param({"bytes=1073741824-", "bytes=1073741824-1140850687", "bytes=0-499,1000-1499"})
+  public String header;
+
+  @Benchmark
+  public List<HttpRange> httpRange() {
+    return HttpRange.parseRanges(header);
+  }
+
+  @Benchmark
+  public List<HttpRange> rangeHeaders() {
+    return RangeHeaders.parseRanges(header);
+  }
+}
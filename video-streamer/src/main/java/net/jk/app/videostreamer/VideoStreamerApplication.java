@@ -1,5 +1,6 @@
 package net.jk.app.videostreamer;
 
+import net.jk.app.videostreamer.config.BlockingCallDetector;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
@@ -7,7 +8,10 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 public class VideoStreamerApplication {
 
   public static void main(String[] args) {
-
+    // development runs can flag blocking calls on event loops, see BlockingCallDetector
+    if (Boolean.getBoolean("video.blockhound")) {
+      BlockingCallDetector.install();
+    }
     SpringApplication.run(VideoStreamerApplication.class, args);
   }
 }
@@ -0,0 +1,20 @@
+package net.jk.app.videostreamer.config;
+
+import reactor.blockhound.BlockHound;
+
+/**
+ * Fails every blocking call made on a non-blocking thread, such as a Netty event loop, with an
+ * error naming the call. Meant for development only, BlockHound is not on the production
+ * classpath.
+ */
+public final class BlockingCallDetector {
+
+  private BlockingCallDetector() {}
+
+  public static void install() {
+    BlockHound.builder()
+        // console and file appenders write synchronously wherever the log call is made
+        .allowBlockingCallsInside("ch.qos.logback.core.OutputStreamAppender", "writeBytes")
+        .install();
+  }
+}
@@ -0,0 +1,157 @@
+package net.jk.app.videostreamer.config;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * The per-request header work of range responses, kept to what cannot be done once per file.
+ *
+ * <p>Media types are resolved once per file and then handed out as the same instance, whose
+ * header value Spring caches. Range headers are parsed in place, keeping open ended ranges as
+ * {@link OpenEndedRange} so the range policy can tell them apart. The microbenchmarks in {@code
+ * video-streamer-jmh} cover each of these against the plain Spring calls.
+ */
+public final class RangeHeaders {
+
+  private static final String BYTES_UNIT = "bytes=";
+
+  /** Same limit as {@link HttpRange#parseRanges(String)}. */
+  private static final int MAX_RANGES = 100;
+
+  private static final Cache<String, MediaType> MEDIA_TYPES =
+      CacheBuilder.newBuilder().maximumSize(10_000).build();
+
+  private RangeHeaders() {}
+
+  /**
+   * Parses a {@code Range} header value like {@link HttpRange#parseRanges(String)} does, except
+   * that ranges without a last position are returned as {@link OpenEndedRange}.
+   *
+   * @throws IllegalArgumentException if the value cannot be parsed
+   */
+  public static List<HttpRange> parseRanges(@Nullable String value) {
+    if (value == null || value.isEmpty()) {
+      return List.of();
+    }
+    if (!value.startsWith(BYTES_UNIT)) {
+      throw new IllegalArgumentException("Range '" + value + "' does not start with 'bytes='");
+    }
+    if (value.indexOf(',') < 0) {
+      // the single range players send, without splitting
+      return List.of(parseRange(value, BYTES_UNIT.length(), value.length()));
+    }
+    var specs = value.substring(BYTES_UNIT.length()).split(",");
+    if (specs.length > MAX_RANGES) {
+      throw new IllegalArgumentException("Too many ranges: " + specs.length);
+    }
+    var ranges = new ArrayList<HttpRange>(specs.length);
+    for (String spec : specs) {
+      if (!spec.isBlank()) {
+        ranges.add(parseRange(spec, 0, spec.length()));
+      }
+    }
+    return ranges;
+  }
+
+  private static HttpRange parseRange(String value, int from, int to) {
+    while (from < to && Character.isWhitespace(value.charAt(from))) {
+      from++;
+    }
+    while (to > from && Character.isWhitespace(value.charAt(to - 1))) {
+      to--;
+    }
+    int dash = value.indexOf('-', from);
+    if (dash < 0 || dash >= to) {
+      throw new IllegalArgumentException("Range '" + value + "' does not contain \"-\"");
+    }
+    if (dash == from) {
+      return HttpRange.createSuffixRange(Long.parseLong(value, dash + 1, to, 10));
+    }
+    long first = Long.parseLong(value, from, dash, 10);
+    if (dash + 1 == to) {
+      return new OpenEndedRange(first);
+    }
+    return HttpRange.createByteRange(first, Long.parseLong(value, dash + 1, to, 10));
+  }
+
+  /** Formats the {@code Content-Range} value of a single range, in one exactly sized string. */
+  public static String contentRange(long start, long end, long length) {
+    return "bytes " + start + '-' + end + '/' + length;
+  }
+
+  /** Returns the media type of the resource by its file name, resolved once per file. */
+  public static MediaType getMediaType(Resource resource) {
+    var key = getKey(resource);
+    if (key == null) {
+      return resolveMediaType(resource);
+    }
+    var mediaType = MEDIA_TYPES.getIfPresent(key);
+    if (mediaType == null) {
+      mediaType = resolveMediaType(resource);
+      MEDIA_TYPES.put(key, mediaType);
+    }
+    return mediaType;
+  }
+
+  @Nullable
+  private static String getKey(Resource resource) {
+    if (!resource.isFile()) {
+      return null;
+    }
+    try {
+      return resource.getFile().getPath();
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  private static MediaType resolveMediaType(Resource resource) {
+    return MediaTypeFactory.getMediaType(resource).orElse(MediaType.APPLICATION_OCTET_STREAM);
+  }
+
+  /** A range from a first position to the end of the content, {@code bytes=first-}. */
+  public static final class OpenEndedRange extends HttpRange {
+    private final long first;
+
+    private OpenEndedRange(long first) {
+      if (first < 0) {
+        throw new IllegalArgumentException("Invalid first byte position: " + first);
+      }
+      this.first = first;
+    }
+
+    @Override
+    public long getRangeStart(long length) {
+      return first;
+    }
+
+    @Override
+    public long getRangeEnd(long length) {
+      return length - 1;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return this == other
+          || (other instanceof OpenEndedRange && ((OpenEndedRange) other).first == first);
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(first);
+    }
+
+    @Override
+    public String toString() {
+      return first + "-";
+    }
+  }
+}
@@ -1,36 +1,126 @@
 package net.jk.app.videostreamer.config;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.io.IOException;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.UnaryOperator;
+import net.jk.app.videostreamer.model.MovieSegmentResource;
+import net.jk.app.videostreamer.service.BandwidthShaper;
+import net.jk.app.videostreamer.service.MappedFileRegistry;
+import net.jk.app.videostreamer.service.ReadAheadPrefetcher;
+import net.jk.app.videostreamer.service.SegmentCache;
 import org.reactivestreams.Publisher;
 import org.springframework.core.ResolvableType;
 import org.springframework.core.codec.ResourceRegionEncoder;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ReactiveHttpOutputMessage;
 import org.springframework.http.ZeroCopyHttpOutputMessage;
 import org.springframework.http.codec.HttpMessageWriter;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.lang.Nullable;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+/**
+ * Writes {@link ResourceRegion}s with {@code sendfile} whenever the region is backed by a local
+ * file and the response supports {@link ZeroCopyHttpOutputMessage}.
+ *
+ * <p>Regions held by the {@link SegmentCache} are written straight from its off-heap blocks. On
+ * encrypted connections, where {@code sendfile} would still copy through user space, regions are
+ * written from shared memory mappings instead when the {@link MappedFileRegistry} is enabled.
+ * Anything else is streamed through buffers from the response's own factory, which on Reactor
+ * Netty is the pooled direct allocator, so the bytes never pass through the Java heap. The bytes
+ * sent on each path are counted in the {@code video.writer.bytes} counter, tagged by path.
+ *
+ * <p>Responses are paced by the {@link BandwidthShaper} when bandwidth limits are configured. The
+ * pacing works on buffers, so such responses never use {@code sendfile}. Responses beyond the
+ * concurrent stream limit are answered with 503 and {@code Retry-After}. Single ranges are
+ * reported to the {@link ReadAheadPrefetcher}, which warms the page cache for sequential readers.
+ *
+ * <p>Nothing here blocks the event loop: lengths and modification times come from the resource,
+ * which for movies answers from the catalog, and every file is opened or mapped on the I/O
+ * scheduler.
+ */
 public class ResourceRegionMessageWriter implements HttpMessageWriter<ResourceRegion> {
 
-  private ResourceRegionEncoder regionEncoder = new ResourceRegionEncoder();
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private ResourceRegionEncoder regionEncoder = new ResourceRegionEncoder(BUFFER_SIZE);
 
   private ResolvableType REGION_TYPE = ResolvableType.forClass(ResourceRegion.class);
 
   private List<MediaType> mediaTypes =
       MediaType.asMediaTypes(regionEncoder.getEncodableMimeTypes());
 
+  private final Counter zeroCopyBytes;
+
+  private final Counter copiedBytes;
+
+  private final Counter cachedBytes;
+
+  private final Counter mappedBytes;
+
+  private final SegmentCache segmentCache;
+
+  private final MappedFileRegistry mappedFiles;
+
+  private final BandwidthShaper shaper;
+
+  private final ReadAheadPrefetcher prefetcher;
+
+  private final Scheduler ioScheduler;
+
+  public ResourceRegionMessageWriter(
+      MeterRegistry meterRegistry,
+      SegmentCache segmentCache,
+      MappedFileRegistry mappedFiles,
+      BandwidthShaper shaper,
+      ReadAheadPrefetcher prefetcher,
+      Scheduler ioScheduler) {
+    this.segmentCache = segmentCache;
+    this.mappedFiles = mappedFiles;
+    this.shaper = shaper;
+    this.prefetcher = prefetcher;
+    this.ioScheduler = ioScheduler;
+    this.zeroCopyBytes =
+        Counter.builder("video.writer.bytes")
+            .description("Bytes of video written to clients")
+            .baseUnit("bytes")
+            .tag("path", "zero-copy")
+            .register(meterRegistry);
+    this.copiedBytes =
+        Counter.builder("video.writer.bytes")
+            .description("Bytes of video written to clients")
+            .baseUnit("bytes")
+            .tag("path", "copy")
+            .register(meterRegistry);
+    this.cachedBytes =
+        Counter.builder("video.writer.bytes")
+            .description("Bytes of video written to clients")
+            .baseUnit("bytes")
+            .tag("path", "cache")
+            .register(meterRegistry);
+    this.mappedBytes =
+        Counter.builder("video.writer.bytes")
+            .description("Bytes of video written to clients")
+            .baseUnit("bytes")
+            .tag("path", "mmap")
+            .register(meterRegistry);
+  }
+
   @Override
   public List<MediaType> getWritableMediaTypes() {
     return mediaTypes;
@@ -48,10 +138,11 @@ public class ResourceRegionMessageWriter implements HttpMessageWriter<ResourceRe
       MediaType mediaType,
       ReactiveHttpOutputMessage message,
       Map<String, Object> hints) {
-    // TODO Auto-generated method stub
-    return Mono.empty();
+
+    return write(inputStream, mediaType, message, false, null);
   }
 
+  @Override
   public Mono<Void> write(
       Publisher<? extends ResourceRegion> inputStream,
       ResolvableType actualType,
@@ -61,48 +152,230 @@ public class ResourceRegionMessageWriter implements HttpMessageWriter<ResourceRe
       ServerHttpResponse response,
       Map<String, Object> hints) {
 
-    var headers = response.getHeaders();
-    headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-    return Mono.from(inputStream)
+    var address = request.getRemoteAddress();
+    var client =
+        address == null || address.getAddress() == null
+            ? null
+            : address.getAddress().getHostAddress();
+    return write(inputStream, mediaType, response, request.getSslInfo() != null, client);
+  }
+
+  /**
+   * @param secure whether the connection is encrypted, in which case {@code sendfile} cannot
+   *     bypass user space and mapped files are preferred when enabled
+   * @param client address of the client the bandwidth is shaped for, {@code null} if unknown
+   */
+  private Mono<Void> write(
+      Publisher<? extends ResourceRegion> inputStream,
+      @Nullable MediaType mediaType,
+      ReactiveHttpOutputMessage message,
+      boolean secure,
+      @Nullable String client) {
+    // claim the stream slot on subscription, so it is given back by the same subscription
+    return Mono.defer(
+        () -> {
+          if (!shaper.tryAcquireStream()) {
+            return rejectStream(message);
+          }
+          return writeRegions(inputStream, mediaType, message, secure, client)
+              .doFinally(signal -> shaper.releaseStream());
+        });
+  }
+
+  private Mono<Void> writeRegions(
+      Publisher<? extends ResourceRegion> inputStream,
+      @Nullable MediaType mediaType,
+      ReactiveHttpOutputMessage message,
+      boolean secure,
+      @Nullable String client) {
+    message.getHeaders().set(HttpHeaders.ACCEPT_RANGES, "bytes");
+    return Flux.from(inputStream)
+        .collectList()
         .flatMap(
-            resourceRegion -> {
-              response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
-              var resourceMediaType = getResourceMediaType(mediaType, resourceRegion.getResource());
-              headers.setContentType(resourceMediaType);
-              long contentLength = 0;
-              try {
-                contentLength = resourceRegion.getResource().contentLength();
-              } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+            regions -> {
+              if (regions.isEmpty()) {
+                return message.setComplete();
+              }
+              UnaryOperator<Flux<DataBuffer>> shaping =
+                  body -> shaper.shape(body, client, getTitle(regions.get(0).getResource()));
+              if (regions.size() == 1) {
+                return writeRegion(regions.get(0), mediaType, message, secure, client, shaping);
               }
-              var start = resourceRegion.getPosition();
-              var end = Math.min(start + resourceRegion.getCount() - 1, contentLength - 1);
-              headers.add("Content-Range", "bytes " + start + '-' + end + '/' + contentLength);
-              headers.setContentLength(end - start + 1);
-
-              return zeroCopy(resourceRegion.getResource(), resourceRegion, response)
-                  .orElseGet(
-                      () -> {
-                        var input = Mono.just(resourceRegion);
-                        var body =
-                            this.regionEncoder.encode(
-                                input,
-                                response.bufferFactory(),
-                                REGION_TYPE,
-                                resourceMediaType,
-                                Collections.emptyMap());
-                        return response.writeWith(body);
-                      });
+              return writeMultipartRegions(regions, mediaType, message, shaping);
             });
   }
 
+  /** Answers that the node is saturated and when to try again. */
+  private Mono<Void> rejectStream(ReactiveHttpOutputMessage message) {
+    setStatus(message, HttpStatus.SERVICE_UNAVAILABLE);
+    var headers = message.getHeaders();
+    headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(shaper.getRetryAfterSeconds()));
+    headers.setContentLength(0);
+    return message.setComplete();
+  }
+
+  private Mono<Void> writeRegion(
+      ResourceRegion resourceRegion,
+      @Nullable MediaType mediaType,
+      ReactiveHttpOutputMessage message,
+      boolean secure,
+      @Nullable String client,
+      UnaryOperator<Flux<DataBuffer>> shaping) {
+    var headers = message.getHeaders();
+    var resourceMediaType = getResourceMediaType(mediaType, resourceRegion.getResource());
+    headers.setContentType(resourceMediaType);
+    long contentLength;
+    try {
+      contentLength = resourceRegion.getResource().contentLength();
+    } catch (IOException e) {
+      return Mono.error(e);
+    }
+    var start = resourceRegion.getPosition();
+    var end = Math.min(start + resourceRegion.getCount() - 1, contentLength - 1);
+    if (start > 0 || end < contentLength - 1) {
+      setStatus(message, HttpStatus.PARTIAL_CONTENT);
+      headers.set(HttpHeaders.CONTENT_RANGE, RangeHeaders.contentRange(start, end, contentLength));
+    }
+    headers.setContentLength(end - start + 1);
+
+    // headers describe the resource, reads address the file it lies in
+    var region = toFileRegion(resourceRegion.getResource(), start, end - start + 1);
+    long fileLength;
+    try {
+      fileLength = region.getResource().contentLength();
+    } catch (IOException e) {
+      return Mono.error(e);
+    }
+    prefetcher.onRead(client, region);
+    // each candidate commits the response when asked for its Mono, so only ask until one applies
+    return cached(region, fileLength, message, shaping)
+        .or(
+            () ->
+                (secure && mappedFiles.isEnabled()) || shaper.isShaping()
+                    ? Optional.<Mono<Void>>empty()
+                    : zeroCopy(region.getResource(), region, message))
+        .or(() -> mapped(region, fileLength, message, shaping))
+        .orElseGet(
+            () -> message.writeWith(shaping.apply(readRegion(region, message.bufferFactory()))));
+  }
+
+  /**
+   * Writes several ranges as one {@code multipart/byteranges} body. The encoder emits the
+   * boundaries and the per-part {@code Content-Type} and {@code Content-Range} headers.
+   */
+  private Mono<Void> writeMultipartRegions(
+      List<? extends ResourceRegion> regions,
+      @Nullable MediaType mediaType,
+      ReactiveHttpOutputMessage message,
+      UnaryOperator<Flux<DataBuffer>> shaping) {
+    setStatus(message, HttpStatus.PARTIAL_CONTENT);
+    var resourceMediaType = getResourceMediaType(mediaType, regions.get(0).getResource());
+    var boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    message
+        .getHeaders()
+        .setContentType(MediaType.parseMediaType("multipart/byteranges;boundary=" + boundary));
+    var body =
+        this.regionEncoder
+            .encode(
+                Flux.fromIterable(regions),
+                message.bufferFactory(),
+                REGION_TYPE,
+                resourceMediaType,
+                Map.of(ResourceRegionEncoder.BOUNDARY_STRING_HINT, boundary))
+            .doOnNext(buffer -> copiedBytes.increment(buffer.readableByteCount()))
+            .subscribeOn(ioScheduler);
+    return message.writeWith(shaping.apply(body));
+  }
+
+  /** Region of the file to read, shifted by the offset of a segment resource. */
+  private static ResourceRegion toFileRegion(Resource resource, long position, long count) {
+    if (resource instanceof MovieSegmentResource) {
+      var segment = (MovieSegmentResource) resource;
+      return new ResourceRegion(segment.getFileResource(), segment.getOffset() + position, count);
+    }
+    return new ResourceRegion(resource, position, count);
+  }
+
+  private static String getTitle(Resource resource) {
+    try {
+      return resource.isFile() ? resource.getFile().getPath() : resource.getDescription();
+    } catch (IOException ex) {
+      return resource.getDescription();
+    }
+  }
+
+  private static void setStatus(ReactiveHttpOutputMessage message, HttpStatus status) {
+    if (message instanceof ServerHttpResponse) {
+      ((ServerHttpResponse) message).setStatusCode(status);
+    }
+  }
+
   public MediaType getResourceMediaType(MediaType mediaType, Resource resource) {
     return (mediaType != null
             && mediaType.isConcrete()
             && mediaType != MediaType.APPLICATION_OCTET_STREAM)
         ? mediaType
-        : MediaTypeFactory.getMediaType(resource).orElse(MediaType.APPLICATION_OCTET_STREAM);
+        : RangeHeaders.getMediaType(resource);
+  }
+
+  private Optional<Mono<Void>> cached(
+      ResourceRegion region,
+      long contentLength,
+      ReactiveHttpOutputMessage message,
+      UnaryOperator<Flux<DataBuffer>> shaping) {
+    var resource = region.getResource();
+    if (!segmentCache.isEnabled() || !resource.isFile()) {
+      return Optional.empty();
+    }
+    try {
+      return segmentCache
+          .read(
+              resource.getFile().toPath(),
+              contentLength,
+              resource.lastModified(),
+              region.getPosition(),
+              region.getCount(),
+              message.bufferFactory())
+          .map(
+              body ->
+                  message.writeWith(
+                      shaping.apply(
+                          body.doOnNext(
+                              buffer -> cachedBytes.increment(buffer.readableByteCount())))));
+    } catch (IOException ex) {
+      return Optional.empty();
+    }
+  }
+
+  private Optional<Mono<Void>> mapped(
+      ResourceRegion region,
+      long contentLength,
+      ReactiveHttpOutputMessage message,
+      UnaryOperator<Flux<DataBuffer>> shaping) {
+    var resource = region.getResource();
+    if (!mappedFiles.isEnabled() || !resource.isFile()) {
+      return Optional.empty();
+    }
+    try {
+      return mappedFiles
+          .read(
+              resource.getFile().toPath(),
+              contentLength,
+              resource.lastModified(),
+              region.getPosition(),
+              region.getCount(),
+              message.bufferFactory())
+          .map(
+              body ->
+                  message.writeWith(
+                      shaping.apply(
+                          body.doOnNext(buffer -> mappedBytes.increment(buffer.readableByteCount()))
+                              .onErrorResume(
+                                  IOException.class,
+                                  ex -> readRegion(region, message.bufferFactory())))));
+    } catch (IOException ex) {
+      return Optional.empty();
+    }
   }
 
   public Optional<Mono<Void>> zeroCopy(
@@ -113,11 +386,27 @@ public class ResourceRegionMessageWriter implements HttpMessageWriter<ResourceRe
         var pos = region.getPosition();
         var count = region.getCount();
         ZeroCopyHttpOutputMessage msg = (ZeroCopyHttpOutputMessage) message;
-        return Optional.of(msg.writeWith(file, pos, count));
+        return Optional.of(
+            msg.writeWith(file, pos, count).doOnSuccess(v -> zeroCopyBytes.increment(count)));
       } catch (IOException ex) {
-        // should not happen
+        // resolvable as a file but not on the default file system, stream it instead
       }
     }
     return Optional.empty();
   }
+
+  /**
+   * Streams the region through buffers of the message's factory. Reading straight into those
+   * buffers keeps the copy path off the heap when the factory hands out direct buffers. Files are
+   * read through an {@link java.nio.channels.AsynchronousFileChannel}, which is opened on the I/O
+   * scheduler so no event loop waits for the file system.
+   */
+  private Flux<DataBuffer> readRegion(ResourceRegion region, DataBufferFactory bufferFactory) {
+    var buffers =
+        DataBufferUtils.read(
+            region.getResource(), region.getPosition(), bufferFactory, BUFFER_SIZE);
+    return DataBufferUtils.takeUntilByteCount(buffers, region.getCount())
+        .doOnNext(buffer -> copiedBytes.increment(buffer.readableByteCount()))
+        .subscribeOn(ioScheduler);
+  }
 }
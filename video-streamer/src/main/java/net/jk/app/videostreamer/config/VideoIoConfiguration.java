@@ -0,0 +1,22 @@
+package net.jk.app.videostreamer.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+@Configuration
+public class VideoIoConfiguration {
+
+  /**
+   * Runs every blocking file system call of the video path, so none of them ever runs on a Netty
+   * event loop. Bounded, so a slow disk queues work instead of piling up threads.
+   */
+  @Bean(destroyMethod = "dispose")
+  public Scheduler videoIoScheduler(
+      @Value("${video.io.threads:32}") int threads,
+      @Value("${video.io.queue-size:100000}") int queueSize) {
+    return Schedulers.newBoundedElastic(threads, queueSize, "video-io");
+  }
+}
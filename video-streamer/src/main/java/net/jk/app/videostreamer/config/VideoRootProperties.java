@@ -0,0 +1,28 @@
+package net.jk.app.videostreamer.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The directories videos are served from, bound from the {@code video.roots} list. When the list
+ * is empty, {@code video.location} is the only root.
+ */
+@Component
+@ConfigurationProperties(prefix = "video")
+@Data
+public class VideoRootProperties {
+
+  private List<Root> roots = new ArrayList<>();
+
+  @Data
+  public static class Root {
+    private String path;
+    /** Name of the storage the root lives on, such as {@code ssd} or {@code hdd}. */
+    private String tier = "default";
+    /** Roots with a higher weight are faster, and preferred when several hold a copy. */
+    private int weight = 1;
+  }
+}
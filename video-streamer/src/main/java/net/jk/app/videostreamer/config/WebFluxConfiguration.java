@@ -1,13 +1,37 @@
 package net.jk.app.videostreamer.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import net.jk.app.videostreamer.service.BandwidthShaper;
+import net.jk.app.videostreamer.service.MappedFileRegistry;
+import net.jk.app.videostreamer.service.ReadAheadPrefetcher;
+import net.jk.app.videostreamer.service.SegmentCache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.codec.ServerCodecConfigurer;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.config.WebFluxConfigurer;
+import reactor.core.scheduler.Scheduler;
 
 @Component
 public class WebFluxConfiguration implements WebFluxConfigurer {
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Autowired private SegmentCache segmentCache;
+
+  @Autowired private MappedFileRegistry mappedFiles;
+
+  @Autowired private BandwidthShaper shaper;
+
+  @Autowired private ReadAheadPrefetcher prefetcher;
+
+  @Autowired private Scheduler videoIoScheduler;
+
   @Override
   public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
-    configurer.customCodecs().register(new ResourceRegionMessageWriter());
+    configurer
+        .customCodecs()
+        .register(
+            new ResourceRegionMessageWriter(
+                meterRegistry, segmentCache, mappedFiles, shaper, prefetcher, videoIoScheduler));
   }
 }
@@ -0,0 +1,83 @@
+package net.jk.app.videostreamer.controller;
+
+import java.util.List;
+import java.util.Optional;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+/** Evaluates HTTP preconditions (RFC 7232) and {@code If-Range} (RFC 7233) against validators. */
+final class ConditionalRequests {
+
+  private ConditionalRequests() {}
+
+  /**
+   * Returns the status to answer with instead of the representation, {@code 412} when a
+   * precondition failed or {@code 304} when the client's copy is current, or empty when the
+   * request should be served.
+   */
+  static Optional<HttpStatus> evaluate(HttpHeaders request, String etag, long lastModified) {
+    List<String> ifMatch = request.getIfMatch();
+    if (!ifMatch.isEmpty()) {
+      if (!matches(ifMatch, etag, false)) {
+        return Optional.of(HttpStatus.PRECONDITION_FAILED);
+      }
+    } else {
+      long ifUnmodifiedSince = request.getIfUnmodifiedSince();
+      if (ifUnmodifiedSince != -1 && seconds(lastModified) > seconds(ifUnmodifiedSince)) {
+        return Optional.of(HttpStatus.PRECONDITION_FAILED);
+      }
+    }
+
+    List<String> ifNoneMatch = request.getIfNoneMatch();
+    if (!ifNoneMatch.isEmpty()) {
+      if (matches(ifNoneMatch, etag, true)) {
+        return Optional.of(HttpStatus.NOT_MODIFIED);
+      }
+    } else {
+      long ifModifiedSince = request.getIfModifiedSince();
+      if (ifModifiedSince != -1 && seconds(lastModified) <= seconds(ifModifiedSince)) {
+        return Optional.of(HttpStatus.NOT_MODIFIED);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Returns whether the {@code Range} header may be honored. A missing {@code If-Range} always
+   * allows it; otherwise the entity tag has to match strongly or the date exactly.
+   */
+  static boolean isRangeAllowed(HttpHeaders request, String etag, long lastModified) {
+    String ifRange = request.getFirst(HttpHeaders.IF_RANGE);
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      return ifRange.equals(etag);
+    }
+    try {
+      return seconds(request.getFirstDate(HttpHeaders.IF_RANGE)) == seconds(lastModified);
+    } catch (IllegalArgumentException ex) {
+      return false;
+    }
+  }
+
+  private static boolean matches(List<String> candidates, String etag, boolean weak) {
+    for (String candidate : candidates) {
+      if ("*".equals(candidate)) {
+        return true;
+      }
+      if (weak && candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** HTTP dates have a resolution of one second. */
+  private static long seconds(long millis) {
+    return millis / 1000;
+  }
+}
@@ -0,0 +1,89 @@
+package net.jk.app.videostreamer.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import net.jk.app.videostreamer.dto.MoviePageResponseDto;
+import net.jk.app.videostreamer.mapper.MovieMapper;
+import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.model.MovieSort;
+import net.jk.app.videostreamer.service.MovieCatalog;
+import net.jk.app.videostreamer.service.MovieService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+@RestController
+public class MovieController {
+
+  private static final int MAX_LIMIT = 500;
+
+  @Autowired private MovieCatalog catalog;
+
+  @Autowired private MovieService svc;
+
+  @Autowired private MovieMapper mapper;
+
+  /**
+   * Lists one page of the catalog. The returned {@code nextCursor} is a keyset position, so pages
+   * stay consistent while movies are added or removed between requests.
+   */
+  @GetMapping("/api/movies")
+  public Mono<MoviePageResponseDto> getMovies(
+      @RequestParam(defaultValue = "name") String sort,
+      @RequestParam(defaultValue = "asc") String order,
+      @RequestParam(required = false) String q,
+      @RequestParam(defaultValue = "prefix") String match,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "50") int limit) {
+    var movieSort = parseSort(sort);
+    var descending = "desc".equalsIgnoreCase(order);
+    var substring = "substring".equalsIgnoreCase(match);
+    var after = cursor == null ? null : decodeCursor(cursor);
+    var pageSize = Math.max(1, Math.min(limit, MAX_LIMIT));
+    return Mono.fromSupplier(
+        () -> {
+          // fetch one extra entry to find out whether another page follows
+          List<Movie> movies =
+              catalog.getIndex().page(movieSort, descending, q, substring, after, pageSize + 1);
+          String next = null;
+          if (movies.size() > pageSize) {
+            movies = movies.subList(0, pageSize);
+            next = encodeCursor(movies.get(pageSize - 1));
+          }
+          return MoviePageResponseDto.builder().movies(mapper.map(movies)).nextCursor(next).build();
+        });
+  }
+
+  private MovieSort parseSort(String sort) {
+    try {
+      return MovieSort.valueOf(sort.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown sort " + sort);
+    }
+  }
+
+  private String encodeCursor(Movie movie) {
+    var key = movie.getSize() + "\n" + movie.getLastModified() + "\n" + movie.getFile();
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private Movie decodeCursor(String cursor) {
+    try {
+      var key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      var parts = key.split("\n", 3);
+      return svc.createMovie(
+          Paths.get(parts[2]), Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+    } catch (RuntimeException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+    }
+  }
+}
@@ -1,36 +1,68 @@
 package net.jk.app.videostreamer.controller;
 
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.util.List;
-import net.jk.app.videostreamer.mapper.MovieMapper;
+import java.nio.charset.StandardCharsets;
 import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.service.IndexPageCache;
+import net.jk.app.videostreamer.service.MovieCatalog;
 import net.jk.app.videostreamer.service.MovieService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
 
 @Controller(value = "/")
 public class PageController {
 
+  private static final MediaType TEXT_HTML_UTF8 =
+      new MediaType(MediaType.TEXT_HTML, StandardCharsets.UTF_8);
+
   @Autowired private MovieService svc;
 
-  @Autowired private MovieMapper mapper;
+  @Autowired private MovieCatalog catalog;
+
+  @Autowired private IndexPageCache pages;
 
+  /** The list of every movie, rendered once per catalog version. */
   @GetMapping("/")
-  public String index(Model model) throws IOException {
-    // getting all of the files in video folder
-    List<Movie> movies = svc.getMoviesList();
-    model.addAttribute("videos", mapper.map(movies));
-    return "index";
+  public ResponseEntity<Flux<DataBuffer>> index(
+      @RequestHeader HttpHeaders headers, ServerWebExchange exchange) {
+    var page = pages.getPage();
+    var status = ConditionalRequests.evaluate(headers, page.getEtag(), page.getLastModified());
+    if (status.isPresent()) {
+      return ResponseEntity.status(status.get())
+          .cacheControl(CacheControl.noCache())
+          .eTag(page.getEtag())
+          .lastModified(page.getLastModified())
+          .build();
+    }
+    return ResponseEntity.ok()
+        .cacheControl(CacheControl.noCache())
+        .eTag(page.getEtag())
+        .lastModified(page.getLastModified())
+        .contentType(TEXT_HTML_UTF8)
+        .body(pages.getBody(page, exchange.getResponse().bufferFactory()));
   }
 
   @GetMapping("/{videoName}")
   public String video(@PathVariable String videoName, Model model)
       throws UnsupportedEncodingException {
-    String encodedPath = svc.escapeUrlPath(videoName);
+    // listed movies carry their path escaped at index time
+    String encodedPath =
+        catalog
+            .getIndex()
+            .findByPath(videoName)
+            .map(Movie::getPath)
+            .orElseGet(() -> svc.escapeUrlPath(videoName));
     model.addAttribute("videoName", encodedPath);
     return "video";
   }
@@ -0,0 +1,108 @@
+package net.jk.app.videostreamer.controller;
+
+import java.util.concurrent.TimeUnit;
+import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.service.MovieCatalog;
+import net.jk.app.videostreamer.service.ThumbnailService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+@RestController
+public class ThumbnailController {
+
+  /**
+   * For URLs carrying the key of the current file version, whose content therefore never changes.
+   */
+  private static final CacheControl CACHE_FOREVER =
+      CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic();
+
+  /** For URLs without that key, which point to a new image once the movie file is replaced. */
+  private static final CacheControl REVALIDATE = CacheControl.noCache();
+
+  @Autowired private MovieCatalog catalog;
+
+  @Autowired private ThumbnailService thumbnails;
+
+  @Autowired private Scheduler videoIoScheduler;
+
+  @GetMapping("/videos/{name}/poster.jpg")
+  public Mono<ResponseEntity<byte[]>> getPoster(
+      @PathVariable String name,
+      @RequestParam(name = "v", required = false) String version,
+      @RequestHeader HttpHeaders headers) {
+    return getImage(name, ThumbnailService.Kind.POSTER, version, headers);
+  }
+
+  /** Seek-preview tiles, laid out as described by the {@code X-Sprite-Layout} header. */
+  @GetMapping("/videos/{name}/sprite.jpg")
+  public Mono<ResponseEntity<byte[]>> getSprite(
+      @PathVariable String name,
+      @RequestParam(name = "v", required = false) String version,
+      @RequestHeader HttpHeaders headers) {
+    return getImage(name, ThumbnailService.Kind.SPRITE, version, headers)
+        .map(
+            response ->
+                ResponseEntity.status(response.getStatusCode())
+                    .headers(response.getHeaders())
+                    .header("X-Sprite-Layout", thumbnails.getSpriteLayout())
+                    .body(response.getBody()));
+  }
+
+  /**
+   * Answers with the image, or with 404 while it has not been generated yet. The request schedules
+   * its generation, so a later request finds it.
+   *
+   * @param version key of the image as linked by pages, only a matching one is cached for good
+   */
+  private Mono<ResponseEntity<byte[]>> getImage(
+      String name, ThumbnailService.Kind kind, String version, HttpHeaders headers) {
+    return Mono.justOrEmpty(catalog.resolveIndexed(name))
+        .switchIfEmpty(
+            Mono.fromCallable(() -> catalog.resolve(name).orElse(null))
+                .subscribeOn(videoIoScheduler))
+        .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)))
+        .flatMap(movie -> getImage(movie, kind, version, headers));
+  }
+
+  private Mono<ResponseEntity<byte[]>> getImage(
+      Movie movie, ThumbnailService.Kind kind, String version, HttpHeaders headers) {
+    var key = thumbnails.getKey(movie, kind);
+    var etag = '"' + key + '"';
+    var cacheControl = key.equals(version) ? CACHE_FOREVER : REVALIDATE;
+    var status = ConditionalRequests.evaluate(headers, etag, movie.getLastModified());
+    if (status.isPresent()) {
+      return Mono.just(
+          ResponseEntity.status(status.get()).cacheControl(cacheControl).eTag(etag).build());
+    }
+    return Mono.fromCallable(() -> thumbnails.getImage(movie, kind))
+        .subscribeOn(videoIoScheduler)
+        .map(
+            image ->
+                image
+                    .map(
+                        bytes ->
+                            ResponseEntity.ok()
+                                .cacheControl(cacheControl)
+                                .eTag(etag)
+                                .lastModified(movie.getLastModified())
+                                .contentType(MediaType.IMAGE_JPEG)
+                                .body(bytes))
+                    .orElseGet(
+                        () ->
+                            ResponseEntity.status(HttpStatus.NOT_FOUND)
+                                .cacheControl(CacheControl.noStore())
+                                .build()));
+  }
+}
@@ -1,61 +1,268 @@
 package net.jk.app.videostreamer.controller;
 
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.nio.file.Paths;
-import org.apache.commons.io.FilenameUtils;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.UrlResource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import net.jk.app.videostreamer.config.RangeHeaders;
+import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.model.MovieResource;
+import net.jk.app.videostreamer.model.MovieSegmentResource;
+import net.jk.app.videostreamer.model.SegmentIndex;
+import net.jk.app.videostreamer.service.MovieCatalog;
+import net.jk.app.videostreamer.service.RangePolicy;
+import net.jk.app.videostreamer.service.SegmentIndexService;
+import net.jk.app.videostreamer.service.ViewCounter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 @RestController
 public class VideoController {
-  @Value("${video.location}")
-  private String videoLocation;
+  private static final MediaType HLS_PLAYLIST =
+      MediaType.parseMediaType("application/vnd.apple.mpegurl");
 
-  private final long ChunkSize = 1000000L;
+  @Autowired private RangePolicy rangePolicy;
+
+  @Autowired private MovieCatalog catalog;
+
+  @Autowired private SegmentIndexService segmentIndexService;
+
+  @Autowired private ViewCounter viewCounter;
+
+  @Autowired private Scheduler videoIoScheduler;
 
   @GetMapping("/videos/{name}/full")
-  public ResponseEntity<UrlResource> getFullVideo(
-      @PathVariable String name, @RequestHeader HttpHeaders headers) throws MalformedURLException {
-    UrlResource video = new UrlResource(Paths.get(FilenameUtils.getName(name)).toUri());
-    return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-        .contentType(
-            MediaTypeFactory.getMediaType(video).orElse(MediaType.APPLICATION_OCTET_STREAM))
-        .body(video);
+  public Mono<ResponseEntity<Flux<ResourceRegion>>> getFullVideo(
+      @PathVariable String name, @RequestHeader HttpHeaders headers) {
+    return resolve(name).map(movie -> serve(movie, headers, true));
   }
 
   @GetMapping("/videos/{name}")
-  public ResponseEntity<ResourceRegion> getVideo(
-      @PathVariable String name, @RequestHeader HttpHeaders headers) throws IOException {
-    var video = new UrlResource(Paths.get(FilenameUtils.getName(name)).toUri());
-    var region = resourceRegion(video, headers);
-    return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-        .contentType(
-            MediaTypeFactory.getMediaType(video).orElse(MediaType.APPLICATION_OCTET_STREAM))
-        .body(region);
-  }
-
-  private ResourceRegion resourceRegion(UrlResource video, HttpHeaders headers) throws IOException {
-    var contentLength = video.contentLength();
-    var range = headers.getRange().stream().findFirst().orElse(null);
-    if (range != null) {
-      var start = range.getRangeStart(contentLength);
-      var end = range.getRangeEnd(contentLength);
-      var rangeLength = Long.min(ChunkSize, end - start + 1);
-      return new ResourceRegion(video, start, rangeLength);
-    } else {
-      var rangeLength = Long.min(ChunkSize, contentLength);
-      return new ResourceRegion(video, 0, rangeLength);
+  public Mono<ResponseEntity<Flux<ResourceRegion>>> getVideo(
+      @PathVariable String name, @RequestHeader HttpHeaders headers) {
+    return resolve(name).map(movie -> serve(movie, headers, false));
+  }
+
+  /**
+   * HLS media playlist listing the movie's keyframe-aligned segments.
+   *
+   * <p>Segments are plain byte slices of the file, not remuxed, and only the first one carries the
+   * container headers. Players that decode each segment on its own, as HLS requires of MPEG-TS
+   * segments, cannot play MP4, Matroska or AVI files from it. It serves players that append the
+   * segments of these containers to one buffer in order, e.g. through Media Source Extensions.
+   */
+  @GetMapping("/videos/{name}/index.m3u8")
+  public Mono<ResponseEntity<String>> getPlaylist(
+      @PathVariable String name, @RequestHeader HttpHeaders headers) {
+    return resolve(name).flatMap(movie -> getPlaylist(movie, headers));
+  }
+
+  /**
+   * One segment of the playlist, served as a resource of its own: its length is the segment's, and
+   * ranges apply within it.
+   */
+  @GetMapping("/videos/{name}/segments/{number}")
+  public Mono<ResponseEntity<Flux<ResourceRegion>>> getSegment(
+      @PathVariable String name, @PathVariable int number, @RequestHeader HttpHeaders headers) {
+    return resolve(name).flatMap(movie -> getSegment(movie, number, headers));
+  }
+
+  private Mono<ResponseEntity<String>> getPlaylist(Movie movie, HttpHeaders headers) {
+    var status = ConditionalRequests.evaluate(headers, movie.getEtag(), movie.getLastModified());
+    if (status.isPresent()) {
+      return Mono.just(statusOnly(status.get(), movie));
+    }
+    return getSegmentIndex(movie)
+        .map(
+            index ->
+                ResponseEntity.ok()
+                    .eTag(movie.getEtag())
+                    .lastModified(movie.getLastModified())
+                    .contentType(HLS_PLAYLIST)
+                    .body(toPlaylist(index)));
+  }
+
+  private Mono<ResponseEntity<Flux<ResourceRegion>>> getSegment(
+      Movie movie, int number, HttpHeaders headers) {
+    var status = ConditionalRequests.evaluate(headers, movie.getEtag(), movie.getLastModified());
+    if (status.isPresent()) {
+      return Mono.just(statusOnly(status.get(), movie));
+    }
+    var ranges = getRanges(movie, headers);
+    return getSegmentIndex(movie)
+        .map(
+            index -> {
+              if (number < 0 || number >= index.size()) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+              }
+              var length = index.getLength(number);
+              var segment = new MovieSegmentResource(movie, index.getOffset(number), length);
+              // several ranges of a segment are answered with all of it, RFC 7233 3.1 allows that
+              var region = new ResourceRegion(segment, 0, length);
+              if (ranges.size() == 1) {
+                var range = ranges.get(0);
+                try {
+                  var start = range.getRangeStart(length);
+                  if (start >= length) {
+                    return rangeNotSatisfiable(movie, length);
+                  }
+                  var end = range.getRangeEnd(length);
+                  region = new ResourceRegion(segment, start, end - start + 1);
+                } catch (IllegalArgumentException ex) {
+                  return rangeNotSatisfiable(movie, length);
+                }
+              }
+              // the writer answers 206 unless the region is the whole segment
+              return ResponseEntity.ok()
+                  .eTag(movie.getEtag())
+                  .lastModified(movie.getLastModified())
+                  .contentType(movie.getMediaType())
+                  .body(Flux.just(region));
+            });
+  }
+
+  /**
+   * Answers with the requested ranges of the movie, or with a status only when the request's
+   * preconditions say the client's copy can be used.
+   *
+   * @param full serve ranges exactly as requested, and the whole file when no range applies,
+   *     instead of sizing them by the range policy
+   */
+  private ResponseEntity<Flux<ResourceRegion>> serve(
+      Movie movie, HttpHeaders headers, boolean full) {
+    var status = ConditionalRequests.evaluate(headers, movie.getEtag(), movie.getLastModified());
+    if (status.isPresent()) {
+      return statusOnly(status.get(), movie);
+    }
+
+    var video = new MovieResource(movie);
+    var contentLength = movie.getSize();
+    var ranges = getRanges(movie, headers);
+
+    var regions = new ArrayList<ResourceRegion>(Math.max(1, ranges.size()));
+    if (ranges.isEmpty()) {
+      var length =
+          full ? contentLength : rangePolicy.getRegionLength(contentLength, movie.getMedia());
+      regions.add(new ResourceRegion(video, 0, length));
     }
+    long totalLength = 0;
+    for (HttpRange range : ranges) {
+      long start;
+      long length;
+      try {
+        start = range.getRangeStart(contentLength);
+        length =
+            full
+                ? range.getRangeEnd(contentLength) - start + 1
+                : rangePolicy.getRegionLength(range, contentLength, movie.getMedia());
+      } catch (IllegalArgumentException ex) {
+        return rangeNotSatisfiable(movie, contentLength);
+      }
+      if (start >= contentLength) {
+        return rangeNotSatisfiable(movie, contentLength);
+      }
+      regions.add(new ResourceRegion(video, start, length));
+      totalLength += length;
+    }
+    // overlapping ranges must not multiply the response beyond the size of the file
+    if (regions.size() > 1 && totalLength > contentLength) {
+      return rangeNotSatisfiable(movie, contentLength);
+    }
+    if (regions.get(0).getPosition() == 0) {
+      viewCounter.recordView(movie);
+    }
+    // the writer answers 206 unless the single region turns out to be the whole file
+    return ResponseEntity.ok()
+        .eTag(movie.getEtag())
+        .lastModified(movie.getLastModified())
+        .contentType(movie.getMediaType())
+        .body(Flux.fromIterable(regions));
+  }
+
+  /** Ranges of the request, none if {@code If-Range} says the client's copy is outdated. */
+  private static List<HttpRange> getRanges(Movie movie, HttpHeaders headers) {
+    List<HttpRange> ranges;
+    try {
+      ranges = RangeHeaders.parseRanges(headers.getFirst(HttpHeaders.RANGE));
+    } catch (IllegalArgumentException ex) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+    }
+    if (!ConditionalRequests.isRangeAllowed(headers, movie.getEtag(), movie.getLastModified())) {
+      return List.of();
+    }
+    return ranges;
+  }
+
+  /** Computes the index off the event loop, since it reads the container index from disk. */
+  private Mono<SegmentIndex> getSegmentIndex(Movie movie) {
+    return Mono.fromCallable(() -> segmentIndexService.getIndex(movie))
+        .subscribeOn(videoIoScheduler)
+        .filter(index -> !index.isEmpty())
+        .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)));
+  }
+
+  private static String toPlaylist(SegmentIndex index) {
+    var playlist = new StringBuilder(64 + index.size() * 32);
+    playlist
+        .append("#EXTM3U\n")
+        .append("#EXT-X-VERSION:3\n")
+        .append("#EXT-X-TARGETDURATION:")
+        .append(index.getTargetDuration())
+        .append('\n')
+        .append("#EXT-X-MEDIA-SEQUENCE:0\n")
+        .append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+    for (int i = 0; i < index.size(); i++) {
+      playlist
+          .append("#EXTINF:")
+          .append(String.format(Locale.ROOT, "%.3f", index.getDuration(i)))
+          .append(",\n")
+          .append("segments/")
+          .append(i)
+          .append('\n');
+    }
+    return playlist.append("#EXT-X-ENDLIST\n").toString();
+  }
+
+  /**
+   * 416, with the {@code Content-Range} telling the client the actual length of the file or
+   * segment, RFC 7233 4.4.
+   */
+  private static <T> ResponseEntity<T> rangeNotSatisfiable(Movie movie, long length) {
+    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+        .eTag(movie.getEtag())
+        .lastModified(movie.getLastModified())
+        .build();
+  }
+
+  private static <T> ResponseEntity<T> statusOnly(HttpStatus status, Movie movie) {
+    return ResponseEntity.status(status)
+        .eTag(movie.getEtag())
+        .lastModified(movie.getLastModified())
+        .build();
+  }
+
+  /**
+   * Only files known to the catalog are served. Indexed movies are answered from memory, only
+   * names the catalog has not seen yet are looked up on disk, off the event loop.
+   */
+  private Mono<Movie> resolve(String name) {
+    return Mono.justOrEmpty(catalog.resolveIndexed(name))
+        .switchIfEmpty(
+            Mono.fromCallable(() -> catalog.resolve(name).orElse(null))
+                .subscribeOn(videoIoScheduler))
+        .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)));
   }
 }
@@ -0,0 +1,17 @@
+package net.jk.app.videostreamer.dto;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MoviePageResponseDto {
+  private List<MovieResponseDto> movies;
+  /** Opaque cursor for the next page, {@code null} when this is the last page. */
+  private String nextCursor;
+}
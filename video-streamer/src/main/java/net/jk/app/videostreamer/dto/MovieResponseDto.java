@@ -12,4 +12,14 @@ import lombok.NoArgsConstructor;
 public class MovieResponseDto {
   private String title;
   private String path;
+  private long size;
+  private long lastModified;
+  /** Duration in seconds, {@code null} until the file has been probed, as are the fields below. */
+  private Double duration;
+  /** Average bitrate in bits per second. */
+  private Long bitrate;
+  private Integer width;
+  private Integer height;
+  private String videoCodec;
+  private String audioCodec;
 }
@@ -2,7 +2,6 @@ package net.jk.app.videostreamer.mapper;
 
 import net.jk.app.videostreamer.dto.MovieResponseDto;
 import net.jk.app.videostreamer.model.Movie;
-import org.springframework.beans.BeanUtils;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -10,8 +9,21 @@ public class MovieMapper implements GenericMapper<Movie, MovieResponseDto> {
 
   @Override
   public MovieResponseDto apply(Movie source) {
-    MovieResponseDto target = new MovieResponseDto();
-    BeanUtils.copyProperties(source, target);
-    return target;
+    var dto =
+        MovieResponseDto.builder()
+            .title(source.getTitle())
+            .path(source.getPath())
+            .size(source.getSize())
+            .lastModified(source.getLastModified());
+    var media = source.getMedia();
+    if (media != null) {
+      dto.duration(media.getDuration() > 0 ? media.getDuration() : null)
+          .bitrate(media.getBitrate() > 0 ? media.getBitrate() : null)
+          .width(media.getWidth() > 0 ? media.getWidth() : null)
+          .height(media.getHeight() > 0 ? media.getHeight() : null)
+          .videoCodec(media.getVideoCodec())
+          .audioCodec(media.getAudioCodec());
+    }
+    return dto.build();
   }
 }
@@ -0,0 +1,151 @@
+package net.jk.app.videostreamer.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads keyframe positions of AVI files from their legacy {@code idx1} index.
+ *
+ * <p>OpenDML files larger than 1 GB keep their index in {@code indx} super-index chunks instead,
+ * those are not supported and yield no keyframes.
+ */
+final class AviKeyframes {
+
+  static final int AVIIF_KEYFRAME = 0x10;
+
+  private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+  private AviKeyframes() {}
+
+  static List<Keyframe> read(ChannelReader reader) throws IOException {
+    var riff = reader.read(0, 12, ByteOrder.LITTLE_ENDIAN);
+    if (!"RIFF".equals(fourCc(riff, 0)) || !"AVI ".equals(fourCc(riff, 8))) {
+      return List.of();
+    }
+    var header = readHeader(reader);
+    if (header.videoStream < 0 || header.moviStart < 0 || header.idx1Start < 0) {
+      return List.of();
+    }
+
+    var index = reader.read(header.idx1Start, header.idx1Size, ByteOrder.LITTLE_ENDIAN);
+    var videoChunk = String.format("%02d", header.videoStream);
+    List<Keyframe> keyframes = new ArrayList<>();
+    long frame = 0;
+    Long base = null;
+    while (index.remaining() >= 16) {
+      int entry = index.position();
+      var chunkId = fourCc(index, entry);
+      int flags = index.getInt(entry + 4);
+      long offset = Integer.toUnsignedLong(index.getInt(entry + 8));
+      index.position(entry + 16);
+      if (!chunkId.startsWith(videoChunk) || !(chunkId.endsWith("dc") || chunkId.endsWith("db"))) {
+        continue;
+      }
+      if (base == null) {
+        // offsets are relative to the "movi" list type, except in files that store them absolute
+        base = offset >= header.moviStart ? 0 : header.moviStart;
+      }
+      if ((flags & AVIIF_KEYFRAME) != 0) {
+        keyframes.add(new Keyframe(frame * header.scale / (double) header.rate, base + offset));
+      }
+      frame++;
+    }
+    return keyframes;
+  }
+
+  /** Walks the top-level RIFF chunks and the stream headers inside {@code hdrl}. */
+  static Header readHeader(ChannelReader reader) throws IOException {
+    var header = new Header();
+    long size = reader.size();
+    long position = 12;
+    while (position + 8 <= size) {
+      int headerLength = (int) Math.min(12, size - position);
+      var chunk = reader.read(position, headerLength, ByteOrder.LITTLE_ENDIAN);
+      var id = fourCc(chunk, 0);
+      long chunkSize = Integer.toUnsignedLong(chunk.getInt(4));
+      if ("LIST".equals(id) && headerLength == 12) {
+        var type = fourCc(chunk, 8);
+        if ("hdrl".equals(type) && chunkSize <= MAX_CHUNK_SIZE) {
+          var hdrl = reader.read(position + 12, (int) chunkSize - 4, ByteOrder.LITTLE_ENDIAN);
+          readStreams(hdrl, header);
+        } else if ("movi".equals(type)) {
+          header.moviStart = position + 8;
+        }
+      } else if ("idx1".equals(id) && chunkSize <= MAX_CHUNK_SIZE) {
+        header.idx1Start = position + 8;
+        header.idx1Size = (int) chunkSize;
+      }
+      position += 8 + chunkSize + (chunkSize & 1);
+    }
+    return header;
+  }
+
+  private static void readStreams(ByteBuffer hdrl, Header header) {
+    int stream = 0;
+    while (hdrl.remaining() >= 8) {
+      int start = hdrl.position();
+      var id = fourCc(hdrl, start);
+      int size = hdrl.getInt(start + 4);
+      if ("avih".equals(id)) {
+        header.microSecPerFrame = Integer.toUnsignedLong(hdrl.getInt(start + 8));
+        header.totalFrames = Integer.toUnsignedLong(hdrl.getInt(start + 24));
+        header.width = hdrl.getInt(start + 40);
+        header.height = hdrl.getInt(start + 44);
+      } else if ("LIST".equals(id) && "strl".equals(fourCc(hdrl, start + 8))) {
+        // strl starts with its strh chunk, followed by the strf chunk
+        int strh = start + 12;
+        if ("strh".equals(fourCc(hdrl, strh))) {
+          var type = fourCc(hdrl, strh + 8);
+          int strf = strh + 8 + hdrl.getInt(strh + 4);
+          boolean hasFormat = strf + 8 <= hdrl.limit() && "strf".equals(fourCc(hdrl, strf));
+          if ("vids".equals(type) && header.videoStream < 0) {
+            header.videoStream = stream;
+            header.scale = Integer.toUnsignedLong(hdrl.getInt(strh + 28));
+            header.rate = Integer.toUnsignedLong(hdrl.getInt(strh + 32));
+            header.length = Integer.toUnsignedLong(hdrl.getInt(strh + 40));
+            // BITMAPINFOHEADER biCompression
+            header.videoCodec = hasFormat ? fourCc(hdrl, strf + 24).trim() : null;
+          } else if ("auds".equals(type) && header.audioFormat < 0 && hasFormat) {
+            // WAVEFORMATEX wFormatTag
+            header.audioFormat = hdrl.getShort(strf + 8) & 0xFFFF;
+          }
+        }
+        stream++;
+      }
+      hdrl.position(start + 8 + size + (size & 1));
+    }
+    if (header.scale == 0 || header.rate == 0) {
+      header.scale = Math.max(1, header.microSecPerFrame);
+      header.rate = 1_000_000;
+    }
+  }
+
+  static String fourCc(ByteBuffer data, int index) {
+    var chars = new char[4];
+    for (int i = 0; i < 4; i++) {
+      chars[i] = (char) (data.get(index + i) & 0xFF);
+    }
+    return new String(chars);
+  }
+
+  /** What the headers say about the file, positions are absolute. */
+  static final class Header {
+    int videoStream = -1;
+    long scale;
+    long rate;
+    long microSecPerFrame;
+    long totalFrames;
+    /** Frames in the video stream. */
+    long length;
+    int width;
+    int height;
+    String videoCodec;
+    int audioFormat = -1;
+    long moviStart = -1;
+    long idx1Start = -1;
+    int idx1Size;
+  }
+}
@@ -0,0 +1,32 @@
+package net.jk.app.videostreamer.media;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/** Positional reads of small structures from a file channel. */
+final class ChannelReader {
+
+  private final FileChannel channel;
+
+  ChannelReader(FileChannel channel) {
+    this.channel = channel;
+  }
+
+  long size() throws IOException {
+    return channel.size();
+  }
+
+  /** Reads exactly {@code length} bytes at {@code position}, failing at end of file. */
+  ByteBuffer read(long position, int length, ByteOrder order) throws IOException {
+    var buffer = ByteBuffer.allocate(length).order(order);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+      }
+    }
+    return buffer.flip();
+  }
+}
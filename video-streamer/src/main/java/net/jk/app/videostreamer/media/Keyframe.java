@@ -0,0 +1,12 @@
+package net.jk.app.videostreamer.media;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/** A video keyframe: its presentation time and the file offset where its data starts. */
+@Data
+@AllArgsConstructor
+public class Keyframe {
+  private double time;
+  private long offset;
+}
@@ -0,0 +1,51 @@
+package net.jk.app.videostreamer.media;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads the keyframe positions of a video file from the index its container already carries, so
+ * the media data itself is never scanned.
+ *
+ * <p>MP4/QuickTime, Matroska/WebM and AVI are supported. The container is recognised from the
+ * first bytes of the file.
+ */
+@Slf4j
+public final class KeyframeReader {
+
+  private KeyframeReader() {}
+
+  /**
+   * Returns the keyframes of the file ordered by offset, or an empty list if the container is not
+   * supported, carries no index or could not be parsed.
+   */
+  public static List<Keyframe> read(Path file) {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      var reader = new ChannelReader(channel);
+      if (reader.size() < 12) {
+        return List.of();
+      }
+      var magic = reader.read(0, 12, ByteOrder.BIG_ENDIAN);
+      if (magic.getInt(0) == MatroskaKeyframes.EBML) {
+        return MatroskaKeyframes.read(reader);
+      }
+      if ("RIFF".equals(AviKeyframes.fourCc(magic, 0))) {
+        return AviKeyframes.read(reader);
+      }
+      if ("ftyp".equals(AviKeyframes.fourCc(magic, 4))
+          || "moov".equals(AviKeyframes.fourCc(magic, 4))
+          || "mdat".equals(AviKeyframes.fourCc(magic, 4))) {
+        return Mp4Keyframes.read(reader);
+      }
+      return List.of();
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to read keyframes of {}", file, e);
+      return List.of();
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package net.jk.app.videostreamer.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads keyframe positions of Matroska/WebM files from their {@code Cues} element.
+ *
+ * <p>Only the EBML header, the segment's {@code SeekHead}, {@code Info}, {@code Tracks} and {@code
+ * Cues} are read. Clusters are skipped by size, and usually not visited at all because the {@code
+ * SeekHead} points straight at the cues.
+ */
+final class MatroskaKeyframes {
+
+  static final int EBML = 0x1A45DFA3;
+  static final int SEGMENT = 0x18538067;
+  static final int SEEK_HEAD = 0x114D9B74;
+  static final int SEEK = 0x4DBB;
+  static final int SEEK_ID = 0x53AB;
+  static final int SEEK_POSITION = 0x53AC;
+  static final int INFO = 0x1549A966;
+  static final int TIMECODE_SCALE = 0x2AD7B1;
+  static final int DURATION = 0x4489;
+  static final int TRACKS = 0x1654AE6B;
+  static final int TRACK_ENTRY = 0xAE;
+  static final int TRACK_NUMBER = 0xD7;
+  static final int TRACK_TYPE = 0x83;
+  static final int CODEC_ID = 0x86;
+  static final int VIDEO = 0xE0;
+  static final int PIXEL_WIDTH = 0xB0;
+  static final int PIXEL_HEIGHT = 0xBA;
+  static final int CUES = 0x1C53BB6B;
+  static final int CUE_POINT = 0xBB;
+  static final int CUE_TIME = 0xB3;
+  static final int CUE_TRACK_POSITIONS = 0xB7;
+  static final int CUE_TRACK = 0xF7;
+  static final int CUE_CLUSTER_POSITION = 0xF1;
+  static final int CLUSTER = 0x1F43B675;
+
+  private static final int MAX_ELEMENT_SIZE = 64 * 1024 * 1024;
+
+  private MatroskaKeyframes() {}
+
+  static List<Keyframe> read(ChannelReader reader) throws IOException {
+    var header = Element.read(reader, 0);
+    if (header.id != EBML) {
+      return List.of();
+    }
+    var segment = Element.read(reader, header.end());
+    if (segment.id != SEGMENT) {
+      return List.of();
+    }
+    long segmentStart = segment.dataStart;
+    long segmentEnd = segment.unknownSize() ? reader.size() : segment.end();
+
+    long timecodeScale = 1_000_000;
+    long videoTrack = -1;
+    long cuesPosition = -1;
+    long position = segmentStart;
+    while (position < segmentEnd) {
+      var element = Element.read(reader, position);
+      if (element.id == SEEK_HEAD) {
+        cuesPosition = findSeek(readData(reader, element), CUES, segmentStart);
+      } else if (element.id == INFO) {
+        var info = readData(reader, element);
+        timecodeScale = findUnsigned(info, TIMECODE_SCALE, timecodeScale);
+      } else if (element.id == TRACKS) {
+        videoTrack = findVideoTrack(readData(reader, element));
+      } else if (element.id == CUES) {
+        cuesPosition = element.start;
+      }
+      if (element.unknownSize()) {
+        break;
+      }
+      if (cuesPosition >= 0 && element.id == CLUSTER) {
+        // everything before the first cluster has been seen, jump to the cues
+        break;
+      }
+      position = element.end();
+    }
+    if (cuesPosition < 0) {
+      return List.of();
+    }
+    var cues = Element.read(reader, cuesPosition);
+    if (cues.id != CUES || cues.unknownSize()) {
+      return List.of();
+    }
+    return readCues(readData(reader, cues), segmentStart, timecodeScale, videoTrack);
+  }
+
+  private static List<Keyframe> readCues(
+      ByteBuffer cues, long segmentStart, long timecodeScale, long videoTrack) {
+    List<Keyframe> keyframes = new ArrayList<>();
+    long lastOffset = -1;
+    while (cues.hasRemaining()) {
+      int id = readId(cues);
+      long size = readSize(cues);
+      int end = cues.position() + (int) size;
+      if (id == CUE_POINT) {
+        long time = -1;
+        long offset = -1;
+        while (cues.position() < end) {
+          int childId = readId(cues);
+          long childSize = readSize(cues);
+          int childEnd = cues.position() + (int) childSize;
+          if (childId == CUE_TIME) {
+            time = readUnsigned(cues, (int) childSize);
+          } else if (childId == CUE_TRACK_POSITIONS && offset < 0) {
+            long track = -1;
+            long cluster = -1;
+            while (cues.position() < childEnd) {
+              int positionId = readId(cues);
+              long positionSize = readSize(cues);
+              if (positionId == CUE_TRACK) {
+                track = readUnsigned(cues, (int) positionSize);
+              } else if (positionId == CUE_CLUSTER_POSITION) {
+                cluster = readUnsigned(cues, (int) positionSize);
+              } else {
+                cues.position(cues.position() + (int) positionSize);
+              }
+            }
+            if (videoTrack < 0 || track == videoTrack) {
+              offset = cluster;
+            }
+          }
+          cues.position(childEnd);
+        }
+        if (time >= 0 && offset >= 0 && segmentStart + offset != lastOffset) {
+          lastOffset = segmentStart + offset;
+          keyframes.add(new Keyframe(time * timecodeScale / 1e9, lastOffset));
+        }
+      }
+      cues.position(end);
+    }
+    return keyframes;
+  }
+
+  static long findSeek(ByteBuffer seekHead, int targetId, long segmentStart) {
+    while (seekHead.hasRemaining()) {
+      int id = readId(seekHead);
+      long size = readSize(seekHead);
+      int end = seekHead.position() + (int) size;
+      if (id == SEEK) {
+        long seekId = -1;
+        long seekPosition = -1;
+        while (seekHead.position() < end) {
+          int childId = readId(seekHead);
+          int childSize = (int) readSize(seekHead);
+          if (childId == SEEK_ID) {
+            seekId = readUnsigned(seekHead, childSize);
+          } else if (childId == SEEK_POSITION) {
+            seekPosition = readUnsigned(seekHead, childSize);
+          } else {
+            seekHead.position(seekHead.position() + childSize);
+          }
+        }
+        if (seekId == targetId && seekPosition >= 0) {
+          return segmentStart + seekPosition;
+        }
+      }
+      seekHead.position(end);
+    }
+    return -1;
+  }
+
+  private static long findVideoTrack(ByteBuffer tracks) {
+    while (tracks.hasRemaining()) {
+      int id = readId(tracks);
+      long size = readSize(tracks);
+      int end = tracks.position() + (int) size;
+      if (id == TRACK_ENTRY) {
+        var entry = tracks.slice().limit((int) size);
+        long number = findUnsigned(entry.duplicate(), TRACK_NUMBER, -1);
+        if (findUnsigned(entry.duplicate(), TRACK_TYPE, -1) == 1) {
+          return number;
+        }
+      }
+      tracks.position(end);
+    }
+    return -1;
+  }
+
+  /** Returns the value of the first direct child with the given id, or the default. */
+  static long findUnsigned(ByteBuffer data, int targetId, long defaultValue) {
+    while (data.hasRemaining()) {
+      int id = readId(data);
+      int size = (int) readSize(data);
+      if (id == targetId) {
+        return readUnsigned(data, size);
+      }
+      data.position(data.position() + size);
+    }
+    return defaultValue;
+  }
+
+  static ByteBuffer readData(ChannelReader reader, Element element) throws IOException {
+    if (element.unknownSize() || element.size > MAX_ELEMENT_SIZE) {
+      throw new IOException("Matroska element " + Integer.toHexString(element.id) + " too large");
+    }
+    return reader.read(element.dataStart, (int) element.size, ByteOrder.BIG_ENDIAN);
+  }
+
+  /** Reads an element id, keeping its length marker as the Matroska specification does. */
+  static int readId(ByteBuffer data) {
+    int first = data.get() & 0xFF;
+    int length = Integer.numberOfLeadingZeros(first) - 23;
+    int id = first;
+    for (int i = 1; i < length; i++) {
+      id = (id << 8) | (data.get() & 0xFF);
+    }
+    return id;
+  }
+
+  /** Reads an element size with its length marker removed, -1 for an unknown size. */
+  static long readSize(ByteBuffer data) {
+    int first = data.get() & 0xFF;
+    int length = Integer.numberOfLeadingZeros(first) - 23;
+    long size = first & (0xFF >> length);
+    boolean unknown = size == (0xFF >> length);
+    for (int i = 1; i < length; i++) {
+      int next = data.get() & 0xFF;
+      unknown &= next == 0xFF;
+      size = (size << 8) | next;
+    }
+    return unknown ? -1 : size;
+  }
+
+  static long readUnsigned(ByteBuffer data, int size) {
+    long value = 0;
+    for (int i = 0; i < size; i++) {
+      value = (value << 8) | (data.get() & 0xFF);
+    }
+    return value;
+  }
+
+  /** Header of an element read from the file, with absolute positions. */
+  static final class Element {
+    final int id;
+    final long start;
+    final long dataStart;
+    final long size;
+
+    private Element(int id, long start, long dataStart, long size) {
+      this.id = id;
+      this.start = start;
+      this.dataStart = dataStart;
+      this.size = size;
+    }
+
+    static Element read(ChannelReader reader, long position) throws IOException {
+      // ids take at most 4 bytes and sizes at most 8
+      var header =
+          reader.read(position, (int) Math.min(12, reader.size() - position), ByteOrder.BIG_ENDIAN);
+      int id = readId(header);
+      long size = readSize(header);
+      return new Element(id, position, position + header.position(), size);
+    }
+
+    boolean unknownSize() {
+      return size < 0;
+    }
+
+    long end() {
+      return dataStart + size;
+    }
+  }
+}
@@ -0,0 +1,306 @@
+package net.jk.app.videostreamer.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+import net.jk.app.videostreamer.model.MediaInfo;
+
+/**
+ * Reads duration, resolution and codecs of a video file from its container headers.
+ *
+ * <p>Only headers are read, a few small positioned reads per file: the MP4 {@code moov} box is
+ * walked box by box without loading its sample tables, Matroska's {@code Info} and {@code Tracks}
+ * sit at the start of the segment, and AVI's {@code hdrl} at the start of the file.
+ */
+@Slf4j
+public final class MediaProbe {
+
+  private MediaProbe() {}
+
+  /** Returns the media information, or empty if the container is not supported or unreadable. */
+  public static Optional<MediaInfo> probe(Path file) {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      var reader = new ChannelReader(channel);
+      long size = reader.size();
+      if (size < 12) {
+        return Optional.empty();
+      }
+      var magic = reader.read(0, 12, ByteOrder.BIG_ENDIAN);
+      var type = AviKeyframes.fourCc(magic, 4);
+      MediaInfo.MediaInfoBuilder info;
+      if (magic.getInt(0) == MatroskaKeyframes.EBML) {
+        info = probeMatroska(reader);
+      } else if ("RIFF".equals(AviKeyframes.fourCc(magic, 0))) {
+        info = probeAvi(reader);
+      } else if ("ftyp".equals(type) || "moov".equals(type) || "mdat".equals(type)) {
+        info = probeMp4(reader);
+      } else {
+        return Optional.empty();
+      }
+      if (info == null) {
+        return Optional.empty();
+      }
+      var media = info.build();
+      if (media.getDuration() > 0) {
+        media.setBitrate((long) (size * 8 / media.getDuration()));
+      }
+      return Optional.of(media);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to probe {}", file, e);
+      return Optional.empty();
+    }
+  }
+
+  private static MediaInfo.MediaInfoBuilder probeMp4(ChannelReader reader) throws IOException {
+    var moov = Box.find(reader, 0, reader.size(), "moov");
+    if (moov == null) {
+      return null;
+    }
+    var info = MediaInfo.builder();
+    var mvhd = Box.find(reader, moov.dataStart, moov.end, "mvhd");
+    if (mvhd != null) {
+      var data = mvhd.read(reader, 32);
+      boolean v1 = data.get(0) == 1;
+      long timescale = Integer.toUnsignedLong(data.getInt(v1 ? 20 : 12));
+      long duration = v1 ? data.getLong(24) : Integer.toUnsignedLong(data.getInt(16));
+      if (timescale > 0) {
+        info.duration(duration / (double) timescale);
+      }
+    }
+    long position = moov.dataStart;
+    Box trak;
+    while ((trak = Box.find(reader, position, moov.end, "trak")) != null) {
+      position = trak.end;
+      var mdia = Box.find(reader, trak.dataStart, trak.end, "mdia");
+      var hdlr = mdia == null ? null : Box.find(reader, mdia.dataStart, mdia.end, "hdlr");
+      if (hdlr == null) {
+        continue;
+      }
+      var handler = AviKeyframes.fourCc(hdlr.read(reader, 12), 8);
+      var minf = Box.find(reader, mdia.dataStart, mdia.end, "minf");
+      var stbl = minf == null ? null : Box.find(reader, minf.dataStart, minf.end, "stbl");
+      var stsd = stbl == null ? null : Box.find(reader, stbl.dataStart, stbl.end, "stsd");
+      if (stsd == null) {
+        continue;
+      }
+      // the first sample entry follows the version, flags and entry count
+      var entry = stsd.read(reader, 44);
+      var codec = entry.limit() >= 16 ? AviKeyframes.fourCc(entry, 12) : null;
+      if ("vide".equals(handler) && entry.limit() >= 44) {
+        info.videoCodec(codec)
+            .width(entry.getShort(40) & 0xFFFF)
+            .height(entry.getShort(42) & 0xFFFF);
+      } else if ("soun".equals(handler)) {
+        info.audioCodec(codec);
+      }
+    }
+    return info;
+  }
+
+  private static MediaInfo.MediaInfoBuilder probeMatroska(ChannelReader reader)
+      throws IOException {
+    var header = MatroskaKeyframes.Element.read(reader, 0);
+    var segment = MatroskaKeyframes.Element.read(reader, header.end());
+    if (segment.id != MatroskaKeyframes.SEGMENT) {
+      return null;
+    }
+    long segmentStart = segment.dataStart;
+    long segmentEnd = segment.unknownSize() ? reader.size() : segment.end();
+    var info = MediaInfo.builder();
+    long infoPosition = -1;
+    long tracksPosition = -1;
+    long position = segmentStart;
+    while (position < segmentEnd && (infoPosition < 0 || tracksPosition < 0)) {
+      var element = MatroskaKeyframes.Element.read(reader, position);
+      if (element.id == MatroskaKeyframes.SEEK_HEAD) {
+        var seekHead = MatroskaKeyframes.readData(reader, element);
+        infoPosition =
+            MatroskaKeyframes.findSeek(seekHead.duplicate(), MatroskaKeyframes.INFO, segmentStart);
+        tracksPosition =
+            MatroskaKeyframes.findSeek(seekHead, MatroskaKeyframes.TRACKS, segmentStart);
+      } else if (element.id == MatroskaKeyframes.INFO) {
+        infoPosition = element.start;
+      } else if (element.id == MatroskaKeyframes.TRACKS) {
+        tracksPosition = element.start;
+      }
+      if (element.unknownSize() || element.id == MatroskaKeyframes.CLUSTER) {
+        break;
+      }
+      position = element.end();
+    }
+    if (infoPosition >= 0) {
+      readMatroskaInfo(reader, infoPosition, info);
+    }
+    if (tracksPosition >= 0) {
+      readMatroskaTracks(reader, tracksPosition, info);
+    }
+    return info;
+  }
+
+  private static void readMatroskaInfo(
+      ChannelReader reader, long position, MediaInfo.MediaInfoBuilder info) throws IOException {
+    var element = MatroskaKeyframes.Element.read(reader, position);
+    if (element.id != MatroskaKeyframes.INFO) {
+      return;
+    }
+    var data = MatroskaKeyframes.readData(reader, element);
+    long timecodeScale = 1_000_000;
+    double duration = -1;
+    while (data.hasRemaining()) {
+      int id = MatroskaKeyframes.readId(data);
+      int size = (int) MatroskaKeyframes.readSize(data);
+      if (id == MatroskaKeyframes.TIMECODE_SCALE) {
+        timecodeScale = MatroskaKeyframes.readUnsigned(data, size);
+      } else if (id == MatroskaKeyframes.DURATION) {
+        long bits = MatroskaKeyframes.readUnsigned(data, size);
+        duration = size == 4 ? Float.intBitsToFloat((int) bits) : Double.longBitsToDouble(bits);
+      } else {
+        data.position(data.position() + size);
+      }
+    }
+    if (duration > 0) {
+      info.duration(duration * timecodeScale / 1e9);
+    }
+  }
+
+  private static void readMatroskaTracks(
+      ChannelReader reader, long position, MediaInfo.MediaInfoBuilder info) throws IOException {
+    var element = MatroskaKeyframes.Element.read(reader, position);
+    if (element.id != MatroskaKeyframes.TRACKS) {
+      return;
+    }
+    var tracks = MatroskaKeyframes.readData(reader, element);
+    boolean hasVideo = false;
+    boolean hasAudio = false;
+    while (tracks.hasRemaining()) {
+      int id = MatroskaKeyframes.readId(tracks);
+      int size = (int) MatroskaKeyframes.readSize(tracks);
+      int end = tracks.position() + size;
+      if (id != MatroskaKeyframes.TRACK_ENTRY) {
+        tracks.position(end);
+        continue;
+      }
+      long type = -1;
+      String codec = null;
+      long width = 0;
+      long height = 0;
+      while (tracks.position() < end) {
+        int childId = MatroskaKeyframes.readId(tracks);
+        int childSize = (int) MatroskaKeyframes.readSize(tracks);
+        int childEnd = tracks.position() + childSize;
+        if (childId == MatroskaKeyframes.TRACK_TYPE) {
+          type = MatroskaKeyframes.readUnsigned(tracks, childSize);
+        } else if (childId == MatroskaKeyframes.CODEC_ID) {
+          var bytes = new byte[childSize];
+          tracks.get(bytes);
+          codec = new String(bytes, StandardCharsets.US_ASCII).trim();
+        } else if (childId == MatroskaKeyframes.VIDEO) {
+          var video = tracks.slice().limit(childSize);
+          width =
+              MatroskaKeyframes.findUnsigned(video.duplicate(), MatroskaKeyframes.PIXEL_WIDTH, 0);
+          height =
+              MatroskaKeyframes.findUnsigned(video.duplicate(), MatroskaKeyframes.PIXEL_HEIGHT, 0);
+        }
+        tracks.position(childEnd);
+      }
+      if (type == 1 && !hasVideo) {
+        hasVideo = true;
+        info.videoCodec(codec).width((int) width).height((int) height);
+      } else if (type == 2 && !hasAudio) {
+        hasAudio = true;
+        info.audioCodec(codec);
+      }
+      tracks.position(end);
+    }
+  }
+
+  private static MediaInfo.MediaInfoBuilder probeAvi(ChannelReader reader) throws IOException {
+    var riff = reader.read(0, 12, ByteOrder.LITTLE_ENDIAN);
+    if (!"AVI ".equals(AviKeyframes.fourCc(riff, 8))) {
+      return null;
+    }
+    var header = AviKeyframes.readHeader(reader);
+    var info = MediaInfo.builder().width(header.width).height(header.height);
+    if (header.length > 0 && header.rate > 0) {
+      info.duration(header.length * header.scale / (double) header.rate);
+    } else if (header.totalFrames > 0) {
+      info.duration(header.totalFrames * header.microSecPerFrame / 1e6);
+    }
+    if (header.videoCodec != null && !header.videoCodec.isEmpty()) {
+      info.videoCodec(header.videoCodec);
+    }
+    if (header.audioFormat >= 0) {
+      info.audioCodec(getAudioFormatName(header.audioFormat));
+    }
+    return info;
+  }
+
+  private static String getAudioFormatName(int formatTag) {
+    switch (formatTag) {
+      case 0x0001:
+        return "pcm";
+      case 0x0055:
+        return "mp3";
+      case 0x00FF:
+      case 0x1610:
+        return "aac";
+      case 0x2000:
+        return "ac3";
+      case 0x2001:
+        return "dts";
+      default:
+        return String.format("0x%04x", formatTag);
+    }
+  }
+
+  /** Header of an MP4 box read from the file, with absolute positions. */
+  private static final class Box {
+    private final String type;
+    private final long dataStart;
+    private final long end;
+
+    private Box(String type, long dataStart, long end) {
+      this.type = type;
+      this.dataStart = dataStart;
+      this.end = end;
+    }
+
+    /** Returns the first box of the given type among the boxes in {@code [from, to)}. */
+    private static Box find(ChannelReader reader, long from, long to, String type)
+        throws IOException {
+      long position = from;
+      while (position + 8 <= to) {
+        var header =
+            reader.read(position, (int) Math.min(16, to - position), ByteOrder.BIG_ENDIAN);
+        long size = Integer.toUnsignedLong(header.getInt(0));
+        int headerSize = 8;
+        if (size == 1 && header.limit() == 16) {
+          size = header.getLong(8);
+          headerSize = 16;
+        } else if (size == 0) {
+          size = to - position;
+        }
+        if (size < headerSize) {
+          return null;
+        }
+        var box = new Box(AviKeyframes.fourCc(header, 4), position + headerSize, position + size);
+        if (box.type.equals(type)) {
+          return box;
+        }
+        position = box.end;
+      }
+      return null;
+    }
+
+    /** Reads up to {@code limit} bytes of the payload. */
+    private ByteBuffer read(ChannelReader reader, int limit) throws IOException {
+      return reader.read(dataStart, (int) Math.min(limit, end - dataStart), ByteOrder.BIG_ENDIAN);
+    }
+  }
+}
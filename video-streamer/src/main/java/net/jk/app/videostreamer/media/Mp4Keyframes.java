@@ -0,0 +1,186 @@
+package net.jk.app.videostreamer.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads keyframe positions of progressive MP4/QuickTime files from the sample tables of the first
+ * video track.
+ *
+ * <p>Only the {@code moov} box is read, wherever it sits in the file. Fragmented files keep their
+ * samples in {@code moof} boxes instead and yield no keyframes.
+ */
+final class Mp4Keyframes {
+
+  private static final int MAX_MOOV_SIZE = 64 * 1024 * 1024;
+
+  private Mp4Keyframes() {}
+
+  static List<Keyframe> read(ChannelReader reader) throws IOException {
+    var moov = readMoov(reader);
+    if (moov == null) {
+      return List.of();
+    }
+    var stbl = findVideoSampleTable(moov);
+    if (stbl == null) {
+      return List.of();
+    }
+    return readKeyframes(stbl.table, stbl.timescale);
+  }
+
+  /** Returns the payload of the top-level {@code moov} box, or {@code null} if there is none. */
+  static ByteBuffer readMoov(ChannelReader reader) throws IOException {
+    long size = reader.size();
+    long position = 0;
+    while (position + 8 <= size) {
+      var header = reader.read(position, (int) Math.min(16, size - position), ByteOrder.BIG_ENDIAN);
+      long boxSize = Integer.toUnsignedLong(header.getInt(0));
+      var type = AviKeyframes.fourCc(header, 4);
+      int headerSize = 8;
+      if (boxSize == 1) {
+        boxSize = header.getLong(8);
+        headerSize = 16;
+      } else if (boxSize == 0) {
+        boxSize = size - position;
+      }
+      if (boxSize < headerSize) {
+        return null;
+      }
+      if ("moov".equals(type)) {
+        if (boxSize > MAX_MOOV_SIZE) {
+          return null;
+        }
+        int length = (int) boxSize - headerSize;
+        return reader.read(position + headerSize, length, ByteOrder.BIG_ENDIAN);
+      }
+      position += boxSize;
+    }
+    return null;
+  }
+
+  /** Returns the sample table and timescale of the first video track in {@code moov}. */
+  static SampleTable findVideoSampleTable(ByteBuffer moov) {
+    for (ByteBuffer trak : children(moov, "trak")) {
+      var mdia = child(trak, "mdia");
+      var hdlr = mdia == null ? null : child(mdia, "hdlr");
+      if (hdlr == null || !"vide".equals(AviKeyframes.fourCc(hdlr, 8))) {
+        continue;
+      }
+      var mdhd = child(mdia, "mdhd");
+      var minf = child(mdia, "minf");
+      var stbl = minf == null ? null : child(minf, "stbl");
+      if (mdhd == null || stbl == null) {
+        continue;
+      }
+      int timescaleOffset = mdhd.get(0) == 1 ? 20 : 12;
+      return new SampleTable(stbl, Integer.toUnsignedLong(mdhd.getInt(timescaleOffset)));
+    }
+    return null;
+  }
+
+  private static List<Keyframe> readKeyframes(ByteBuffer stbl, long timescale) {
+    var stts = child(stbl, "stts");
+    var stss = child(stbl, "stss");
+    var stsc = child(stbl, "stsc");
+    var stsz = child(stbl, "stsz");
+    var stco = child(stbl, "stco");
+    var co64 = child(stbl, "co64");
+    if (stts == null || stsc == null || stsz == null || (stco == null && co64 == null)) {
+      return List.of();
+    }
+
+    int chunkCount = (stco != null ? stco : co64).getInt(4);
+    int stscCount = stsc.getInt(4);
+    int uniformSize = stsz.getInt(4);
+    int sampleCount = stsz.getInt(8);
+    int syncCount = stss == null ? 0 : stss.getInt(4);
+    int sttsCount = stts.getInt(4);
+
+    List<Keyframe> keyframes = new ArrayList<>();
+    int sample = 1;
+    int stscEntry = 0;
+    int syncEntry = 0;
+    int sttsEntry = 0;
+    long sttsRemaining = sttsCount > 0 ? Integer.toUnsignedLong(stts.getInt(8)) : 0;
+    long decodeTime = 0;
+    for (int chunk = 1; chunk <= chunkCount && sample <= sampleCount; chunk++) {
+      while (stscEntry + 1 < stscCount && stsc.getInt(8 + (stscEntry + 1) * 12) <= chunk) {
+        stscEntry++;
+      }
+      int samplesInChunk = stsc.getInt(8 + stscEntry * 12 + 4);
+      long offset =
+          stco != null
+              ? Integer.toUnsignedLong(stco.getInt(8 + (chunk - 1) * 4))
+              : co64.getLong(8 + (chunk - 1) * 8);
+      for (int i = 0; i < samplesInChunk && sample <= sampleCount; i++, sample++) {
+        while (syncEntry < syncCount && stss.getInt(8 + syncEntry * 4) < sample) {
+          syncEntry++;
+        }
+        boolean sync =
+            stss == null || (syncEntry < syncCount && stss.getInt(8 + syncEntry * 4) == sample);
+        if (sync) {
+          keyframes.add(new Keyframe(decodeTime / (double) timescale, offset));
+        }
+        offset +=
+            uniformSize != 0
+                ? uniformSize
+                : Integer.toUnsignedLong(stsz.getInt(12 + (sample - 1) * 4));
+        while (sttsRemaining == 0 && sttsEntry + 1 < sttsCount) {
+          sttsEntry++;
+          sttsRemaining = Integer.toUnsignedLong(stts.getInt(8 + sttsEntry * 8));
+        }
+        if (sttsRemaining > 0) {
+          decodeTime += Integer.toUnsignedLong(stts.getInt(8 + sttsEntry * 8 + 4));
+          sttsRemaining--;
+        }
+      }
+    }
+    return keyframes;
+  }
+
+  /** Returns the payload of the first direct child box of the given type. */
+  static ByteBuffer child(ByteBuffer parent, String type) {
+    var found = children(parent, type);
+    return found.isEmpty() ? null : found.get(0);
+  }
+
+  /** Returns the payloads of all direct child boxes of the given type. */
+  static List<ByteBuffer> children(ByteBuffer parent, String type) {
+    List<ByteBuffer> found = new ArrayList<>();
+    int position = 0;
+    while (position + 8 <= parent.limit()) {
+      long size = Integer.toUnsignedLong(parent.getInt(position));
+      int headerSize = 8;
+      if (size == 1) {
+        size = parent.getLong(position + 8);
+        headerSize = 16;
+      } else if (size == 0) {
+        size = parent.limit() - position;
+      }
+      if (size < headerSize || position + size > parent.limit()) {
+        break;
+      }
+      if (type.equals(AviKeyframes.fourCc(parent, position + 4))) {
+        var payload = parent.duplicate();
+        payload.position(position + headerSize).limit((int) (position + size));
+        found.add(payload.slice());
+      }
+      position += size;
+    }
+    return found;
+  }
+
+  /** The {@code stbl} payload of a track together with its media timescale. */
+  static final class SampleTable {
+    final ByteBuffer table;
+    final long timescale;
+
+    private SampleTable(ByteBuffer table, long timescale) {
+      this.table = table;
+      this.timescale = timescale;
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package net.jk.app.videostreamer.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/** What the container headers of a movie say about its streams. Unknown values are 0 or null. */
+@Data
+@Builder
+public class MediaInfo {
+  /** Duration in seconds. */
+  private double duration;
+  /** Average bitrate of the whole file in bits per second. */
+  private long bitrate;
+  private int width;
+  private int height;
+  private String videoCodec;
+  private String audioCodec;
+}
@@ -1,11 +1,25 @@
 package net.jk.app.videostreamer.model;
 
+import java.nio.file.Path;
 import lombok.Builder;
 import lombok.Data;
+import org.springframework.http.MediaType;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 public class Movie {
   private String title;
+  /** Absolute path of the file, escaped once as a URL path segment when the file is indexed. */
   private String path;
+  private Path file;
+  /** The root the file was found in, {@code null} if it lies in none of the current roots. */
+  private VideoRoot root;
+  private long size;
+  private long lastModified;
+  /** Strong validator derived from size and modification time. */
+  private String etag;
+  /** Read from the container headers, {@code null} until the file has been probed. */
+  private MediaInfo media;
+  /** Resolved from the file extension when the file is indexed. */
+  private MediaType mediaType;
 }
@@ -0,0 +1,28 @@
+package net.jk.app.videostreamer.model;
+
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * The file of a movie as a {@link org.springframework.core.io.Resource}, answering length and
+ * modification time from the catalog instead of a blocking stat. Both stay consistent with the
+ * movie's validators.
+ */
+public class MovieResource extends FileSystemResource {
+
+  private final Movie movie;
+
+  public MovieResource(Movie movie) {
+    super(movie.getFile());
+    this.movie = movie;
+  }
+
+  @Override
+  public long contentLength() {
+    return movie.getSize();
+  }
+
+  @Override
+  public long lastModified() {
+    return movie.getLastModified();
+  }
+}
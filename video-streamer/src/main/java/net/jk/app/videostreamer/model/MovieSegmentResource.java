@@ -0,0 +1,39 @@
+package net.jk.app.videostreamer.model;
+
+/**
+ * One segment of a movie's file as a resource of its own. Its length is the segment's, and the
+ * positions of regions of it are relative to the start of the segment, so responses describe the
+ * segment rather than the file. Writers shift them by {@link #getOffset()} to read the file.
+ *
+ * <p>The multipart encoder cannot shift positions, so segments are served as single regions.
+ */
+public class MovieSegmentResource extends MovieResource {
+
+  private final MovieResource file;
+
+  private final long offset;
+
+  private final long length;
+
+  public MovieSegmentResource(Movie movie, long offset, long length) {
+    super(movie);
+    this.file = new MovieResource(movie);
+    this.offset = offset;
+    this.length = length;
+  }
+
+  @Override
+  public long contentLength() {
+    return length;
+  }
+
+  /** The whole file of the movie. */
+  public MovieResource getFileResource() {
+    return file;
+  }
+
+  /** Position of the segment's first byte in the file. */
+  public long getOffset() {
+    return offset;
+  }
+}
@@ -0,0 +1,20 @@
+package net.jk.app.videostreamer.model;
+
+import java.util.Comparator;
+
+/** Orders in which the movie catalog can be listed. Every order is total, ties break on path. */
+public enum MovieSort {
+  NAME(Comparator.comparing(Movie::getTitle, String.CASE_INSENSITIVE_ORDER)),
+  SIZE(Comparator.comparingLong(Movie::getSize)),
+  MTIME(Comparator.comparingLong(Movie::getLastModified));
+
+  private final Comparator<Movie> comparator;
+
+  MovieSort(Comparator<Movie> comparator) {
+    this.comparator = comparator.thenComparing(Movie::getFile);
+  }
+
+  public Comparator<Movie> getComparator() {
+    return comparator;
+  }
+}
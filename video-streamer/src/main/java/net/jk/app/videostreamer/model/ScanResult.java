@@ -0,0 +1,34 @@
+package net.jk.app.videostreamer.model;
+
+import java.nio.file.Path;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Movies found by a directory scan, together with the paths that could not be read. The movies
+ * below a failed path are missing from the result, everything else was scanned.
+ */
+@Data
+@AllArgsConstructor
+public class ScanResult {
+  private List<Movie> movies;
+  private List<ScanError> errors;
+
+  /** Whether the given path lies below a directory or file that could not be read. */
+  public boolean isUnreadable(Path path) {
+    for (ScanError error : errors) {
+      if (path.startsWith(error.getPath())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Data
+  @AllArgsConstructor
+  public static class ScanError {
+    private Path path;
+    private String message;
+  }
+}
@@ -0,0 +1,49 @@
+package net.jk.app.videostreamer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Keyframe-aligned segments of a movie, each a contiguous byte range of the file.
+ *
+ * <p>Segments are held in parallel primitive arrays, so an index of a long movie costs a few bytes
+ * per segment instead of an object each.
+ */
+@AllArgsConstructor
+public class SegmentIndex {
+  /** Validator of the file the index was computed from. */
+  @Getter private final String etag;
+  /** Longest segment duration rounded up, as an HLS target duration. */
+  @Getter private final int targetDuration;
+
+  private final long[] offsets;
+  private final long[] lengths;
+  /** Durations in seconds. */
+  private final double[] durations;
+
+  public int size() {
+    return offsets.length;
+  }
+
+  public boolean isEmpty() {
+    return offsets.length == 0;
+  }
+
+  public long getOffset(int segment) {
+    return offsets[segment];
+  }
+
+  public long getLength(int segment) {
+    return lengths[segment];
+  }
+
+  /** Duration of the segment in seconds. */
+  public double getDuration(int segment) {
+    return durations[segment];
+  }
+
+  /** Approximate heap footprint in bytes, to bound the memory taken by cached indexes. */
+  public int getWeight() {
+    return 64 + etag.length() * 2 + offsets.length * (Long.BYTES * 2 + Double.BYTES);
+  }
+}
@@ -0,0 +1,15 @@
+package net.jk.app.videostreamer.model;
+
+import java.nio.file.Path;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/** A directory videos are served from, on a storage tier of the given weight. */
+@Data
+@AllArgsConstructor
+public class VideoRoot {
+  /** Absolute and normalized. */
+  private Path path;
+  private String tier;
+  private int weight;
+}
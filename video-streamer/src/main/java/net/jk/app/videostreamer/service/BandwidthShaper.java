@@ -0,0 +1,183 @@
+package net.jk.app.videostreamer.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Limits the bandwidth and the number of concurrent video streams of this node.
+ *
+ * <p>Bandwidth is shared through token buckets: one for the whole node, one per client address and
+ * one per title, each refilled at its configured rate in bytes per second and holding up to {@code
+ * video.shaping.burst-bytes}. A rate of 0 disables that bucket. A buffer is only emitted once every
+ * bucket it draws from has paid off its debt, so a throttled response simply stops requesting data
+ * from the file until a timer fires; no thread waits.
+ *
+ * <p>Once {@code video.shaping.max-streams} responses are being written, further ones are refused
+ * and should be answered with 503 and {@code Retry-After}.
+ */
+@Component
+public class BandwidthShaper {
+
+  @Value("${video.shaping.global-bytes-per-second:0}")
+  private long globalRate;
+
+  @Value("${video.shaping.client-bytes-per-second:0}")
+  private long clientRate;
+
+  @Value("${video.shaping.title-bytes-per-second:0}")
+  private long titleRate;
+
+  @Value("${video.shaping.burst-bytes:4194304}")
+  private long burstBytes;
+
+  @Value("${video.shaping.max-streams:0}")
+  private int maxStreams;
+
+  @Value("${video.shaping.retry-after-seconds:5}")
+  private long retryAfterSeconds;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  private final AtomicInteger activeStreams = new AtomicInteger();
+
+  private final Cache<String, TokenBucket> clientBuckets =
+      CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).build();
+
+  private final Cache<String, TokenBucket> titleBuckets =
+      CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).build();
+
+  private TokenBucket globalBucket;
+
+  private Counter rejectedCounter;
+
+  @PostConstruct
+  private void init() {
+    if (globalRate > 0) {
+      globalBucket = new TokenBucket(globalRate, burstBytes);
+    }
+    Gauge.builder("video.streams.active", activeStreams, AtomicInteger::get)
+        .register(meterRegistry);
+    rejectedCounter = Counter.builder("video.streams.rejected").register(meterRegistry);
+  }
+
+  /** Whether any bandwidth limit is configured, in which case responses must be shaped. */
+  public boolean isShaping() {
+    return globalRate > 0 || clientRate > 0 || titleRate > 0;
+  }
+
+  /**
+   * Claims a stream slot, to be given back with {@link #releaseStream()} once the response is
+   * written. Returns false when the node is saturated.
+   */
+  public boolean tryAcquireStream() {
+    while (true) {
+      int current = activeStreams.get();
+      if (maxStreams > 0 && current >= maxStreams) {
+        rejectedCounter.increment();
+        return false;
+      }
+      if (activeStreams.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  public void releaseStream() {
+    activeStreams.decrementAndGet();
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /**
+   * Delays the buffers of a response so it stays within the limits of the node, the client and the
+   * title.
+   *
+   * @param client address of the client, or {@code null} when unknown
+   * @param title identifies the video being streamed
+   */
+  public Flux<DataBuffer> shape(Flux<DataBuffer> body, @Nullable String client, String title) {
+    var buckets = getBuckets(client, title);
+    if (buckets.isEmpty()) {
+      return body;
+    }
+    return body.concatMap(
+            buffer -> {
+              long waitNanos = 0;
+              for (TokenBucket bucket : buckets) {
+                waitNanos = Math.max(waitNanos, bucket.take(buffer.readableByteCount()));
+              }
+              if (waitNanos == 0) {
+                return Mono.just(buffer);
+              }
+              return Mono.delay(Duration.ofNanos(waitNanos))
+                  .map(tick -> buffer)
+                  .doOnCancel(() -> DataBufferUtils.release(buffer));
+            },
+            1)
+        .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+  }
+
+  private List<TokenBucket> getBuckets(@Nullable String client, String title) {
+    List<TokenBucket> buckets = new ArrayList<>(3);
+    if (globalBucket != null) {
+      buckets.add(globalBucket);
+    }
+    try {
+      if (clientRate > 0 && client != null) {
+        buckets.add(clientBuckets.get(client, () -> new TokenBucket(clientRate, burstBytes)));
+      }
+      if (titleRate > 0) {
+        buckets.add(titleBuckets.get(title, () -> new TokenBucket(titleRate, burstBytes)));
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+    return buckets;
+  }
+
+  /**
+   * Token bucket that may run into debt: taking more tokens than available succeeds, and the
+   * caller waits until the debt is refilled.
+   */
+  private static final class TokenBucket {
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    private TokenBucket(long bytesPerSecond, long capacity) {
+      this.rate = bytesPerSecond / 1e9;
+      this.capacity = capacity;
+      this.tokens = capacity;
+    }
+
+    /** Takes the tokens and returns how many nanoseconds to wait before using them. */
+    private synchronized long take(int bytes) {
+      long now = System.nanoTime();
+      tokens = Math.min(capacity, tokens + (now - refilledAt) * rate);
+      refilledAt = now;
+      tokens -= bytes;
+      return tokens >= 0 ? 0 : (long) (-tokens / rate);
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package net.jk.app.videostreamer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.jk.app.videostreamer.model.Movie;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Warms the page cache with the start of the most watched titles after a restart, so their first
+ * viewers do not wait for a cold disk.
+ *
+ * <p>The views counted by the {@link ViewCounter}, added to those of earlier runs, are written
+ * every {@code video.warmup.save-interval-ms} to the compact binary log at {@code
+ * video.warmup.history}, keeping the {@code video.warmup.max-entries} most viewed titles. Counts
+ * are halved whenever the log is loaded, so titles nobody watches any more fade out over a few
+ * restarts.
+ *
+ * <p>Once the application is ready, the first {@code video.warmup.head-bytes} of the {@code
+ * video.warmup.titles} most viewed titles are read on a single minimum-priority thread, at no
+ * more than {@code video.warmup.bytes-per-second}, after a delay of {@code
+ * video.warmup.delay-ms} that lets the catalog settle. Readiness never waits for any of it.
+ */
+@Service
+@Slf4j
+public class CacheWarmer {
+
+  private static final int HISTORY_MAGIC = 0x564f5731;
+
+  private static final int READ_SIZE = 1024 * 1024;
+
+  @Value("${video.warmup.history:}")
+  private String historyLocation;
+
+  @Value("${video.warmup.titles:20}")
+  private int titles;
+
+  @Value("${video.warmup.head-bytes:67108864}")
+  private long headBytes;
+
+  @Value("${video.warmup.bytes-per-second:33554432}")
+  private long bytesPerSecond;
+
+  @Value("${video.warmup.delay-ms:10000}")
+  private long delayMs;
+
+  @Value("${video.warmup.max-entries:1000}")
+  private int maxEntries;
+
+  @Value("${video.warmup.save-interval-ms:300000}")
+  private long saveIntervalMs;
+
+  @Autowired private MovieCatalog catalog;
+
+  @Autowired private ViewCounter viewCounter;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  /** Halved view counts of earlier runs, as loaded from the history. */
+  private final Map<Path, Long> pastViews = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService executor;
+
+  /** Set once the history is loaded, so an early shutdown cannot overwrite it with less. */
+  private volatile boolean loaded;
+
+  private Counter warmedBytes;
+
+  @PostConstruct
+  private void init() {
+    if (historyLocation.isEmpty()) {
+      return;
+    }
+    warmedBytes = Counter.builder("video.warmup.bytes").baseUnit("bytes").register(meterRegistry);
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "cache-warmer");
+              t.setDaemon(true);
+              t.setPriority(Thread.MIN_PRIORITY);
+              return t;
+            });
+  }
+
+  @PreDestroy
+  private void destroy() {
+    if (executor == null) {
+      return;
+    }
+    executor.shutdownNow();
+    save();
+  }
+
+  /** Loads the history and schedules the warm-up, without holding up the ready application. */
+  @EventListener(ApplicationReadyEvent.class)
+  public void onReady() {
+    if (executor == null) {
+      return;
+    }
+    executor.execute(this::load);
+    executor.schedule(this::warm, delayMs, TimeUnit.MILLISECONDS);
+    executor.scheduleWithFixedDelay(
+        this::save, saveIntervalMs, saveIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  private void warm() {
+    var scratch = ByteBuffer.allocateDirect(READ_SIZE);
+    long warmed = 0;
+    int count = 0;
+    for (var entry : getMostViewed(titles)) {
+      var title = entry.getKey();
+      Optional<Movie> found = catalog.findTitle(title);
+      if (found.isEmpty()) {
+        continue;
+      }
+      var movie = found.get();
+      try {
+        warmed += readHead(movie.getFile(), Math.min(headBytes, movie.getSize()), scratch);
+        count++;
+      } catch (IOException e) {
+        log.debug("Unable to warm {}", title, e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    log.info("Warmed {} bytes of {} titles", warmed, count);
+  }
+
+  /** Reads the start of the file, sleeping between reads to stay within the configured rate. */
+  private long readHead(Path file, long length, ByteBuffer scratch)
+      throws IOException, InterruptedException {
+    long position = 0;
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      while (position < length) {
+        long started = System.nanoTime();
+        scratch.clear().limit((int) Math.min(scratch.capacity(), length - position));
+        int read = channel.read(scratch, position);
+        if (read < 0) {
+          break;
+        }
+        position += read;
+        warmedBytes.increment(read);
+        if (bytesPerSecond > 0) {
+          long due = TimeUnit.SECONDS.toNanos(read) / bytesPerSecond;
+          TimeUnit.NANOSECONDS.sleep(due - (System.nanoTime() - started));
+        }
+      }
+    }
+    return position;
+  }
+
+  /** Returns the titles with the most views of this and earlier runs, with their counts. */
+  private List<Map.Entry<Path, Long>> getMostViewed(int limit) {
+    var counts = viewCounter.getCounts();
+    pastViews.forEach((title, count) -> counts.merge(title, count, Long::sum));
+    return counts.entrySet().stream()
+        .sorted(Map.Entry.<Path, Long>comparingByValue(Comparator.reverseOrder()))
+        .limit(limit)
+        .collect(Collectors.toList());
+  }
+
+  private void load() {
+    Path history = Paths.get(historyLocation);
+    if (!Files.isReadable(history)) {
+      loaded = true;
+      return;
+    }
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(history)))) {
+      if (in.readInt() != HISTORY_MAGIC) {
+        log.warn("Ignoring watch history {} with unknown format", history);
+        return;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Path title = Paths.get(in.readUTF());
+        long viewCount = in.readLong() / 2;
+        if (viewCount > 0) {
+          pastViews.merge(title, viewCount, Long::sum);
+        }
+      }
+      log.info("Loaded watch history of {} titles from {}", count, history);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to load watch history {}", history, e);
+    } finally {
+      // an unusable history is replaced by the next save, not kept forever
+      loaded = true;
+    }
+  }
+
+  private synchronized void save() {
+    if (!loaded) {
+      return;
+    }
+    var mostViewed = getMostViewed(maxEntries);
+    Path history = Paths.get(historyLocation).toAbsolutePath();
+    Path tmp = history.resolveSibling(history.getFileName() + ".tmp");
+    try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(HISTORY_MAGIC);
+      out.writeInt(mostViewed.size());
+      for (var entry : mostViewed) {
+        out.writeUTF(entry.getKey().toString());
+        out.writeLong(entry.getValue());
+      }
+    } catch (IOException e) {
+      log.warn("Unable to write watch history {}", history, e);
+      return;
+    }
+    try {
+      Files.move(tmp, history, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Unable to replace watch history {}", history, e);
+    }
+  }
+}
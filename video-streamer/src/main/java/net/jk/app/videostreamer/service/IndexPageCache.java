@@ -0,0 +1,234 @@
+package net.jk.app.videostreamer.service;
+
+import freemarker.template.Template;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import net.jk.app.videostreamer.mapper.MovieMapper;
+import net.jk.app.videostreamer.model.Movie;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.result.view.freemarker.FreeMarkerConfigurer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * The rendered index page, kept per catalog version.
+ *
+ * <p>A page is rendered the first time it is asked for after the catalog changed, on the video I/O
+ * scheduler, and streamed to the client in chunks of {@code video.page.chunk-size} bytes. Each
+ * chunk is only emitted once the client asked for it, so rendering proceeds at the client's pace
+ * and a slow reader holds no more than one chunk in flight. A client that asks for nothing for
+ * {@code video.page.stall-timeout-ms} fails the render, so it cannot hold an I/O thread for good.
+ *
+ * <p>Pages up to {@code video.page.cache-max-bytes} keep their chunks and are served from them
+ * until the catalog changes again. The chunks of larger pages are dropped as soon as the limit is
+ * passed, and these pages are rendered for every request.
+ */
+@Service
+public class IndexPageCache {
+
+  private static final String TEMPLATE = "index.ftl";
+
+  @Value("${video.page.chunk-size:16384}")
+  private int chunkSize;
+
+  @Value("${video.page.cache-max-bytes:4194304}")
+  private long cacheMaxBytes;
+
+  @Value("${video.page.stall-timeout-ms:30000}")
+  private long stallTimeoutMs;
+
+  @Autowired private MovieCatalog catalog;
+
+  @Autowired private MovieMapper mapper;
+
+  @Autowired private FreeMarkerConfigurer freeMarker;
+
+  @Autowired private ThumbnailService thumbnails;
+
+  @Autowired private Scheduler videoIoScheduler;
+
+  /** Part of every entity tag, so versions counted by an earlier process never match. */
+  private final String instance = Long.toHexString(System.currentTimeMillis());
+
+  private volatile Page page = new Page(new MovieIndex(-1, List.of()), "", 0);
+
+  /** Returns the page of the current catalog version, rendered or not. */
+  public Page getPage() {
+    var index = catalog.getIndex();
+    var current = page;
+    if (current.index.getVersion() != index.getVersion()) {
+      var etag = '"' + instance + '-' + Long.toHexString(index.getVersion()) + '"';
+      current = new Page(index, etag, System.currentTimeMillis());
+      page = current;
+    }
+    return current;
+  }
+
+  /** Returns the HTML of the page, from its cached chunks when it has been rendered before. */
+  public Flux<DataBuffer> getBody(Page page, DataBufferFactory bufferFactory) {
+    var chunks = page.chunks;
+    var body = chunks != null ? Flux.fromIterable(chunks) : render(page);
+    return body.map(bufferFactory::wrap);
+  }
+
+  private Flux<byte[]> render(Page page) {
+    return Flux.create(
+        sink -> {
+          var out = new ChunkOutputStream(sink);
+          sink.onRequest(n -> out.wake());
+          sink.onDispose(out::wake);
+          videoIoScheduler.schedule(() -> render(page, out, sink));
+        });
+  }
+
+  private void render(Page page, ChunkOutputStream out, FluxSink<byte[]> sink) {
+    try (var writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+      Template template = freeMarker.getConfiguration().getTemplate(TEMPLATE);
+      template.process(getModel(page.index), writer);
+    } catch (Exception e) {
+      // a cancelled sink would only report the error as dropped
+      if (!sink.isCancelled()) {
+        sink.error(e);
+      }
+      return;
+    }
+    if (out.kept != null) {
+      page.chunks = out.kept;
+    }
+    sink.complete();
+  }
+
+  /**
+   * Posters are only linked when they are generated at all, with the key of the current file
+   * version so they can be cached for good.
+   */
+  private Map<String, Object> getModel(MovieIndex index) {
+    var movies = index.getMovies();
+    var posters = new HashMap<String, String>();
+    if (thumbnails.isEnabled()) {
+      for (Movie movie : movies) {
+        posters.put(movie.getPath(), thumbnails.getKey(movie, ThumbnailService.Kind.POSTER));
+      }
+    }
+    return Map.of(
+        "videos", mapper.map(movies), "thumbnails", thumbnails.isEnabled(), "posters", posters);
+  }
+
+  /** The index page of one catalog version. */
+  public static final class Page {
+    private final MovieIndex index;
+
+    @Getter private final String etag;
+
+    /** When this version was first served. */
+    @Getter private final long lastModified;
+
+    /** The rendered HTML, {@code null} until rendered or if too large to keep. */
+    private volatile List<byte[]> chunks;
+
+    private Page(MovieIndex index, String etag, long lastModified) {
+      this.index = index;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * Cuts the rendered bytes into chunks and emits each once the client asked for it, keeping them
+   * while the page is small enough to cache.
+   */
+  private final class ChunkOutputStream extends OutputStream {
+    private final FluxSink<byte[]> sink;
+    private final byte[] buffer = new byte[chunkSize];
+    /** The chunks emitted so far, {@code null} once the page grew too large to cache. */
+    private List<byte[]> kept = new ArrayList<>();
+    private int count;
+    private long size;
+
+    private ChunkOutputStream(FluxSink<byte[]> sink) {
+      this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buffer.length) {
+        flushChunk();
+      }
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buffer.length) {
+          flushChunk();
+        }
+        int n = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      flushChunk();
+    }
+
+    private void flushChunk() throws IOException {
+      if (count == 0) {
+        return;
+      }
+      var chunk = Arrays.copyOf(buffer, count);
+      size += count;
+      count = 0;
+      if (kept != null) {
+        if (size <= cacheMaxBytes) {
+          kept.add(chunk);
+        } else {
+          kept = null;
+        }
+      }
+      awaitDemand();
+      sink.next(chunk);
+    }
+
+    private synchronized void awaitDemand() throws IOException {
+      long deadline = System.currentTimeMillis() + stallTimeoutMs;
+      while (sink.requestedFromDownstream() == 0 && !sink.isCancelled()) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          throw new IOException("Client read nothing for " + stallTimeoutMs + " ms");
+        }
+        try {
+          wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for the client");
+        }
+      }
+      if (sink.isCancelled()) {
+        throw new IOException("Client cancelled the page");
+      }
+    }
+
+    private synchronized void wake() {
+      notifyAll();
+    }
+  }
+}
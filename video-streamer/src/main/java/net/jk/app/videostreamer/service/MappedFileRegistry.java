@@ -0,0 +1,275 @@
+package net.jk.app.videostreamer.service;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.internal.PlatformDependent;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Shares read-only memory mappings of video files across requests.
+ *
+ * <p>Files are mapped in windows of {@code video.mmap.window-size} bytes the first time a region of
+ * them is requested. Regions are written as slices of the mapping, which the kernel pages in on
+ * demand, so serving them costs no user-space copy. This is the path for connections where
+ * {@code sendfile} cannot be used, such as TLS.
+ *
+ * <p>Every slice holds a reference on its window. Windows that nobody references are unmapped once
+ * they have been idle for {@code video.mmap.idle-timeout-ms}. Mapping opens the file, so it is
+ * done on the I/O scheduler rather than on the thread asking for the region.
+ *
+ * <p>No lock is held while mapping. Each window is a future that the first request needing it
+ * completes, concurrent requests for the same window wait for that future only, and checking
+ * whether a region is mapped does not block at all.
+ */
+@Component
+@Slf4j
+public class MappedFileRegistry {
+
+  @Value("${video.mmap.enabled:false}")
+  private boolean enabled;
+
+  @Value("${video.mmap.window-size:1073741824}")
+  private long windowSize;
+
+  @Value("${video.mmap.idle-timeout-ms:60000}")
+  private long idleTimeoutMs;
+
+  @Autowired private Scheduler videoIoScheduler;
+
+  private final ConcurrentMap<WindowKey, CompletableFuture<Window>> windows =
+      new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService sweeper;
+
+  @PostConstruct
+  private void init() {
+    windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+    if (!enabled) {
+      return;
+    }
+    sweeper =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "mapped-file-sweeper");
+              t.setDaemon(true);
+              return t;
+            });
+    sweeper.scheduleWithFixedDelay(
+        this::unmapIdle, idleTimeoutMs, idleTimeoutMs, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  private void destroy() {
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+    windows.values().stream().filter(MappedFileRegistry::isMapped).forEach(f -> f.join().unmap());
+    windows.clear();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the region as buffers sharing the file's mappings, or empty if the buffer factory
+   * cannot wrap Netty buffers. Windows that are not mapped yet are mapped on the I/O scheduler
+   * when the region is subscribed to, failing the region with the {@link IOException} if the file
+   * cannot be mapped.
+   *
+   * @param length current length of the file
+   * @param lastModified current modification time, so a replaced file gets a new mapping
+   */
+  public Optional<Flux<DataBuffer>> read(
+      Path file,
+      long length,
+      long lastModified,
+      long position,
+      long count,
+      DataBufferFactory bufferFactory) {
+    if (!enabled || count <= 0 || !(bufferFactory instanceof NettyDataBufferFactory)) {
+      return Optional.empty();
+    }
+    var factory = (NettyDataBufferFactory) bufferFactory;
+    long first = position / windowSize;
+    long last = (position + count - 1) / windowSize;
+    var slices = Mono.fromCallable(() -> slice(file, length, lastModified, position, count));
+    if (!isMapped(file, length, lastModified, first, last)) {
+      slices = slices.subscribeOn(videoIoScheduler);
+    }
+    return Optional.of(slices.flatMapMany(list -> wrap(list, factory)));
+  }
+
+  private boolean isMapped(Path file, long length, long lastModified, long first, long last) {
+    for (long index = first; index <= last; index++) {
+      var window = windows.get(new WindowKey(file, length, lastModified, index));
+      if (window == null || !isMapped(window)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isMapped(CompletableFuture<Window> window) {
+    return window.isDone() && !window.isCompletedExceptionally();
+  }
+
+  private List<ByteBuf> slice(Path file, long length, long lastModified, long position, long count)
+      throws IOException {
+    long first = position / windowSize;
+    long last = (position + count - 1) / windowSize;
+    List<ByteBuf> slices = new ArrayList<>((int) (last - first + 1));
+    try {
+      for (long index = first; index <= last; index++) {
+        var key = new WindowKey(file, length, lastModified, index);
+        long windowStart = index * windowSize;
+        ByteBuf slice = null;
+        while (slice == null) {
+          // null if the sweeper unmapped the window in between, which also removed it
+          var window = getWindow(key);
+          int from = (int) (Math.max(position, windowStart) - windowStart);
+          int to = (int) (Math.min(position + count, windowStart + window.length) - windowStart);
+          slice = window.retainedSlice(from, to - from);
+          window.lastUsed = System.currentTimeMillis();
+        }
+        slices.add(slice);
+      }
+    } catch (IOException e) {
+      log.warn("Unable to map {}", file, e);
+      slices.forEach(ByteBuf::release);
+      throw e;
+    }
+    return slices;
+  }
+
+  private static Flux<DataBuffer> wrap(List<ByteBuf> slices, NettyDataBufferFactory factory) {
+    var emitted = new AtomicInteger();
+    return Flux.fromIterable(slices)
+        .doOnNext(slice -> emitted.incrementAndGet())
+        .map(slice -> (DataBuffer) factory.wrap(slice))
+        .doFinally(
+            signal -> {
+              // release the slices a cancelled response never took ownership of
+              for (int i = emitted.get(); i < slices.size(); i++) {
+                slices.get(i).release();
+              }
+            });
+  }
+
+  /** Returns the window, mapping it if no other request is already doing so. */
+  private Window getWindow(WindowKey key) throws IOException {
+    var window = windows.get(key);
+    if (window == null) {
+      var created = new CompletableFuture<Window>();
+      window = windows.putIfAbsent(key, created);
+      if (window == null) {
+        window = created;
+        map(key, created);
+      }
+    }
+    try {
+      return window.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private void map(WindowKey key, CompletableFuture<Window> window) {
+    long position = key.index * windowSize;
+    long windowLength = Math.min(windowSize, key.length - position);
+    try (var channel = FileChannel.open(key.file, StandardOpenOption.READ)) {
+      window.complete(
+          new Window(channel.map(FileChannel.MapMode.READ_ONLY, position, windowLength)));
+    } catch (IOException | RuntimeException e) {
+      // forget the failure, so the next request tries again
+      windows.remove(key, window);
+      window.completeExceptionally(e);
+    }
+  }
+
+  private void unmapIdle() {
+    long idleSince = System.currentTimeMillis() - idleTimeoutMs;
+    for (var entry : windows.entrySet()) {
+      if (!isMapped(entry.getValue())) {
+        continue;
+      }
+      var window = entry.getValue().join();
+      // a reference count of one means only this registry holds the window
+      if (window.buffer.refCnt() == 1
+          && window.lastUsed < idleSince
+          && windows.remove(entry.getKey(), entry.getValue())) {
+        window.unmap();
+      }
+    }
+  }
+
+  @EqualsAndHashCode
+  @RequiredArgsConstructor
+  private static final class WindowKey {
+    private final Path file;
+    private final long length;
+    private final long lastModified;
+    private final long index;
+  }
+
+  private static final class Window {
+    private final MappedByteBuffer mapping;
+    private final ByteBuf buffer;
+    private final int length;
+    private volatile long lastUsed;
+
+    private Window(MappedByteBuffer mapping) {
+      this.mapping = mapping;
+      this.buffer = Unpooled.wrappedBuffer(mapping);
+      this.length = mapping.capacity();
+    }
+
+    /** Returns a slice holding a reference, or null if the window has been unmapped. */
+    private ByteBuf retainedSlice(int from, int length) {
+      try {
+        return buffer.retainedSlice(from, length);
+      } catch (IllegalReferenceCountException e) {
+        return null;
+      }
+    }
+
+    private void unmap() {
+      if (buffer.release()) {
+        PlatformDependent.freeDirectBuffer(mapping);
+      }
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package net.jk.app.videostreamer.service;
+
+import static com.google.common.base.Strings.emptyToNull;
+import static com.google.common.base.Strings.nullToEmpty;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.jk.app.videostreamer.media.MediaProbe;
+import net.jk.app.videostreamer.model.MediaInfo;
+import net.jk.app.videostreamer.model.Movie;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Probes movies for their {@link MediaInfo} and remembers the results across restarts.
+ *
+ * <p>Results are keyed by path, size and modification time, so a replaced file is probed again.
+ * The file system's inode is not used because Java does not expose it on every platform the
+ * streamer runs on. The store is a compact binary file at {@code video.metadata.store}, written
+ * after every batch that probed something. Batches are probed in parallel on {@code
+ * video.metadata.probe-threads} threads, by default one per core.
+ */
+@Service
+@Slf4j
+public class MetadataStore {
+
+  private static final int STORE_MAGIC = 0x564f4d31;
+
+  @Value("${video.metadata.store:}")
+  private String storeLocation;
+
+  @Value("${video.metadata.probe-threads:0}")
+  private int probeThreads;
+
+  private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  private ForkJoinPool pool;
+
+  @PostConstruct
+  private void init() {
+    int threads = probeThreads > 0 ? probeThreads : Runtime.getRuntime().availableProcessors();
+    pool = new ForkJoinPool(threads);
+    load();
+  }
+
+  @PreDestroy
+  private void destroy() {
+    pool.shutdownNow();
+    save();
+  }
+
+  /** Returns the movie with its stored media information, without touching the file. */
+  public Movie attachCached(Movie movie) {
+    var entry = entries.get(movie.getFile());
+    if (entry == null || !entry.matches(movie) || entry.media == null) {
+      return movie;
+    }
+    return movie.toBuilder().media(entry.media).build();
+  }
+
+  /** Returns the movie with its media information, probing the file if nothing is stored. */
+  public Movie attach(Movie movie) {
+    var entry = entries.get(movie.getFile());
+    if (entry == null || !entry.matches(movie)) {
+      var media = MediaProbe.probe(movie.getFile()).orElse(null);
+      // files that cannot be probed are remembered too, so they are not read again
+      entry = new Entry(movie.getSize(), movie.getLastModified(), media);
+      entries.put(movie.getFile(), entry);
+      dirty.set(true);
+    }
+    return entry.media == null ? movie : movie.toBuilder().media(entry.media).build();
+  }
+
+  /** Attaches media information to every movie, probing the unknown ones in parallel. */
+  public List<Movie> attachAll(List<Movie> movies) {
+    List<Movie> result =
+        pool.submit(() -> movies.parallelStream().map(this::attach).collect(Collectors.toList()))
+            .join();
+    save();
+    return result;
+  }
+
+  /** Forgets every file that is not in the given set. */
+  public void retain(Set<Path> files) {
+    if (entries.keySet().retainAll(files)) {
+      dirty.set(true);
+    }
+  }
+
+  private void load() {
+    if (storeLocation.isEmpty() || !Files.isReadable(Paths.get(storeLocation))) {
+      return;
+    }
+    Path store = Paths.get(storeLocation);
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(store)))) {
+      if (in.readInt() != STORE_MAGIC) {
+        log.warn("Ignoring metadata store {} with unknown format", store);
+        return;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Path path = Paths.get(in.readUTF());
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        MediaInfo media = null;
+        if (in.readBoolean()) {
+          media =
+              MediaInfo.builder()
+                  .duration(in.readDouble())
+                  .bitrate(in.readLong())
+                  .width(in.readInt())
+                  .height(in.readInt())
+                  .videoCodec(emptyToNull(in.readUTF()))
+                  .audioCodec(emptyToNull(in.readUTF()))
+                  .build();
+        }
+        entries.put(path, new Entry(size, lastModified, media));
+      }
+      log.info("Loaded media information of {} files from {}", count, store);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to load metadata store {}", store, e);
+      entries.clear();
+    }
+  }
+
+  private synchronized void save() {
+    if (storeLocation.isEmpty() || !dirty.getAndSet(false)) {
+      return;
+    }
+    Path store = Paths.get(storeLocation).toAbsolutePath();
+    Path tmp = store.resolveSibling(store.getFileName() + ".tmp");
+    var snapshot = Map.copyOf(entries);
+    try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(STORE_MAGIC);
+      out.writeInt(snapshot.size());
+      for (Map.Entry<Path, Entry> e : snapshot.entrySet()) {
+        var entry = e.getValue();
+        out.writeUTF(e.getKey().toString());
+        out.writeLong(entry.size);
+        out.writeLong(entry.lastModified);
+        out.writeBoolean(entry.media != null);
+        if (entry.media != null) {
+          out.writeDouble(entry.media.getDuration());
+          out.writeLong(entry.media.getBitrate());
+          out.writeInt(entry.media.getWidth());
+          out.writeInt(entry.media.getHeight());
+          out.writeUTF(nullToEmpty(entry.media.getVideoCodec()));
+          out.writeUTF(nullToEmpty(entry.media.getAudioCodec()));
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Unable to write metadata store {}", store, e);
+      return;
+    }
+    try {
+      Files.move(tmp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Unable to replace metadata store {}", store, e);
+    }
+  }
+
+  @RequiredArgsConstructor
+  private static final class Entry {
+    private final long size;
+    private final long lastModified;
+    private final MediaInfo media;
+
+    private boolean matches(Movie movie) {
+      return size == movie.getSize() && lastModified == movie.getLastModified();
+    }
+  }
+}
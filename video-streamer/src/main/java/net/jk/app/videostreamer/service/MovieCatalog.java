@@ -0,0 +1,461 @@
+package net.jk.app.videostreamer.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.model.ScanResult;
+import net.jk.app.videostreamer.model.VideoRoot;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * In-memory index of every video below the video roots.
+ *
+ * <p>The catalog is built once at startup, either from a local snapshot file or by walking the
+ * trees, and is then kept current by a {@link WatchService}. Network mounts frequently do not
+ * deliver file system events, so a periodic reconcile scan corrects any drift.
+ *
+ * <p>Files at the same path relative to their root are copies of one title. Listings show each
+ * title once, and lookups answer with the copy on the root of the highest weight.
+ */
+@Service
+@Slf4j
+public class MovieCatalog {
+
+  private static final int SNAPSHOT_MAGIC = 0x564f4c32;
+
+  @Autowired private MovieService svc;
+
+  @Autowired private MetadataStore metadata;
+
+  @Value("${video.catalog.snapshot:}")
+  private String snapshotLocation;
+
+  @Value("${video.catalog.reconcile-interval-ms:600000}")
+  private long reconcileIntervalMs;
+
+  private final NavigableMap<Path, Movie> movies = new ConcurrentSkipListMap<>();
+
+  private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+
+  private final AtomicLong version = new AtomicLong();
+
+  private volatile MovieIndex index = new MovieIndex(-1, List.of());
+
+  private ScheduledExecutorService executor;
+
+  private volatile WatchService watcher;
+
+  @PostConstruct
+  private void init() {
+    loadSnapshot();
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "movie-catalog");
+              t.setDaemon(true);
+              return t;
+            });
+    executor.execute(this::startWatching);
+    executor.scheduleWithFixedDelay(
+        this::reconcile, reconcileIntervalMs, reconcileIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  private void destroy() {
+    if (watcher != null) {
+      try {
+        watcher.close();
+      } catch (IOException e) {
+        log.warn("Unable to close catalog watcher", e);
+      }
+    }
+    executor.shutdownNow();
+    saveSnapshot();
+  }
+
+  /** Returns an immutable view of the catalog, one preferred copy per title, ordered by path. */
+  public List<Movie> getMovies() {
+    return getIndex().getMovies();
+  }
+
+  /** Returns the sorted index for the current catalog version, rebuilding it if stale. */
+  public MovieIndex getIndex() {
+    MovieIndex current = index;
+    long currentVersion = version.get();
+    if (current.getVersion() != currentVersion) {
+      current = new MovieIndex(currentVersion, getPreferredCopies());
+      index = current;
+    }
+    return current;
+  }
+
+  /**
+   * Looks up the movie for the given file. Video files below a video root that the catalog has
+   * not seen yet, because their watch event is still pending, are indexed on the spot.
+   */
+  public Optional<Movie> find(Path path) {
+    Path file = path.toAbsolutePath().normalize();
+    Movie movie = movies.get(file);
+    if (movie != null) {
+      return Optional.of(movie);
+    }
+    if (svc.getRoot(file).isEmpty() || !svc.isVideoFile(file) || !Files.isRegularFile(file)) {
+      return Optional.empty();
+    }
+    try {
+      movie = metadata.attachCached(svc.createMovie(file));
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+    if (movies.putIfAbsent(file, movie) == null) {
+      version.incrementAndGet();
+    }
+    return Optional.ofNullable(movies.get(file));
+  }
+
+  /**
+   * Looks up the movie a request names, by path or else by bare file name, and answers with the
+   * preferred copy of that title. Names that are not valid paths resolve to nothing.
+   */
+  public Optional<Movie> resolve(String name) {
+    try {
+      return find(Paths.get(name))
+          .or(() -> find(Paths.get(FilenameUtils.getName(name))))
+          .map(this::getPreferredCopy);
+    } catch (InvalidPathException ex) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Like {@link #resolve(String)}, but only answers from memory. Movies the catalog has not
+   * indexed yet resolve to nothing, so this never touches the disk and is safe on an event loop.
+   */
+  public Optional<Movie> resolveIndexed(String name) {
+    var listed = getIndex().findByPath(name);
+    if (listed.isPresent()) {
+      return listed;
+    }
+    try {
+      return findIndexed(Paths.get(name))
+          .or(() -> findIndexed(Paths.get(FilenameUtils.getName(name))))
+          .map(this::getPreferredCopy);
+    } catch (InvalidPathException ex) {
+      return Optional.empty();
+    }
+  }
+
+  private Optional<Movie> findIndexed(Path path) {
+    return Optional.ofNullable(movies.get(path.toAbsolutePath().normalize()));
+  }
+
+  /** Returns the copy of the movie's title on the root of the highest weight. */
+  public Movie getPreferredCopy(Movie movie) {
+    return findTitle(svc.getRelativePath(movie)).orElse(movie);
+  }
+
+  /** Looks up the preferred copy of a title by its path relative to the roots. */
+  public Optional<Movie> findTitle(Path relativePath) {
+    for (VideoRoot root : svc.getRoots()) {
+      Movie copy = movies.get(root.getPath().resolve(relativePath));
+      if (copy != null) {
+        return Optional.of(copy);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /** Returns a counter that changes every time a movie is added to or removed from the catalog. */
+  public long getVersion() {
+    return version.get();
+  }
+
+  /** Walks every video root and brings the catalog in line with what is on disk. */
+  public void reconcile() {
+    List<Movie> scanned = new ArrayList<>();
+    List<ScanResult.ScanError> errors = new ArrayList<>();
+    for (VideoRoot root : svc.getRoots()) {
+      var rootScan = svc.scanMovies(root.getPath());
+      scanned.addAll(rootScan.getMovies());
+      errors.addAll(rootScan.getErrors());
+    }
+    var scan = new ScanResult(scanned, errors);
+    logScanErrors(scan);
+    List<Movie> found = metadata.attachAll(scan.getMovies());
+    var present = new HashSet<Path>();
+    int added = 0;
+    int updated = 0;
+    for (Movie movie : found) {
+      present.add(movie.getFile());
+      // unchanged entries are kept, so the index and its readers keep sharing the same instances
+      Movie previous = movies.get(movie.getFile());
+      if (previous == null) {
+        movies.put(movie.getFile(), movie);
+        added++;
+      } else if (isModified(previous, movie)) {
+        movies.put(movie.getFile(), movie);
+        updated++;
+      }
+    }
+    int removed = 0;
+    for (Path path : movies.keySet()) {
+      if (present.contains(path)) {
+        continue;
+      }
+      if (scan.isUnreadable(path)) {
+        // not seen because its directory or root failed, which says nothing about whether it
+        // still exists, and keeping the last known entries beats emptying on a transient NAS error
+        present.add(path);
+      } else if (movies.remove(path) != null) {
+        removed++;
+      }
+    }
+    metadata.retain(present);
+    if (added > 0 || updated > 0 || removed > 0) {
+      version.incrementAndGet();
+      saveSnapshot();
+    }
+    log.info(
+        "Catalog reconciled, {} movies ({} added, {} updated, {} removed)",
+        movies.size(),
+        added,
+        updated,
+        removed);
+  }
+
+  private void logScanErrors(ScanResult scan) {
+    var errors = scan.getErrors();
+    if (errors.isEmpty()) {
+      return;
+    }
+    errors.stream()
+        .limit(20)
+        .forEach(error -> log.warn("Unable to scan {}: {}", error.getPath(), error.getMessage()));
+    log.warn(
+        "Scan found {} movies, {} paths could not be read",
+        scan.getMovies().size(),
+        errors.size());
+  }
+
+  private void startWatching() {
+    try {
+      watcher = FileSystems.getDefault().newWatchService();
+      for (VideoRoot root : svc.getRoots()) {
+        try {
+          registerTree(root.getPath());
+        } catch (IOException | UncheckedIOException e) {
+          log.warn("File system events unavailable for {}, relying on reconcile scans", root, e);
+        }
+      }
+    } catch (IOException e) {
+      log.warn("File system events unavailable, relying on reconcile scans", e);
+    }
+    reconcile();
+    if (watcher != null) {
+      Thread watchThread = new Thread(this::processEvents, "movie-catalog-watcher");
+      watchThread.setDaemon(true);
+      watchThread.start();
+    }
+  }
+
+  private void registerTree(Path start) throws IOException {
+    Files.walkFileTree(
+        start,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            WatchKey key =
+                dir.register(
+                    watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.put(key, dir.toAbsolutePath());
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            log.warn("Unable to watch {}", file, exc);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private void processEvents() {
+    while (!Thread.currentThread().isInterrupted()) {
+      WatchKey key;
+      try {
+        key = watcher.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      Path dir = watchedDirectories.get(key);
+      boolean changed = false;
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+          executor.execute(this::reconcile);
+          continue;
+        }
+        Path path = dir.resolve((Path) event.context());
+        changed |= onEvent(event.kind(), path);
+      }
+      if (!key.reset()) {
+        watchedDirectories.remove(key);
+      }
+      if (changed) {
+        version.incrementAndGet();
+      }
+    }
+  }
+
+  private boolean onEvent(WatchEvent.Kind<?> kind, Path path) {
+    if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+      // the path may have been a directory, so drop everything below it as well
+      return movies.keySet().removeIf(p -> p.startsWith(path));
+    }
+    if (Files.isDirectory(path)) {
+      if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+        try {
+          registerTree(path);
+        } catch (IOException | UncheckedIOException e) {
+          log.warn("Unable to watch new directory {}", path, e);
+        }
+        var scan = svc.scanMovies(path);
+        logScanErrors(scan);
+        boolean changed = false;
+        for (Movie movie : metadata.attachAll(scan.getMovies())) {
+          changed |= movies.putIfAbsent(movie.getFile(), movie) == null;
+        }
+        return changed;
+      }
+      return false;
+    }
+    if (Files.isRegularFile(path) && svc.isVideoFile(path)) {
+      try {
+        Movie movie = metadata.attach(svc.createMovie(path));
+        Movie previous = movies.get(movie.getFile());
+        if (previous != null && !isModified(previous, movie)) {
+          return false;
+        }
+        movies.put(movie.getFile(), movie);
+        return true;
+      } catch (IOException e) {
+        log.warn("Unable to index {}", path, e);
+      }
+    }
+    return false;
+  }
+
+  /** Keeps one movie per title, the copy on the root of the highest weight. */
+  private List<Movie> getPreferredCopies() {
+    Map<Path, Movie> titles = new LinkedHashMap<>();
+    for (Movie movie : movies.values()) {
+      titles.merge(
+          svc.getRelativePath(movie),
+          movie,
+          (current, copy) -> getWeight(copy) > getWeight(current) ? copy : current);
+    }
+    return new ArrayList<>(titles.values());
+  }
+
+  private static int getWeight(Movie movie) {
+    return movie.getRoot() == null ? Integer.MIN_VALUE : movie.getRoot().getWeight();
+  }
+
+  private static boolean isModified(Movie previous, Movie current) {
+    return previous.getSize() != current.getSize()
+        || previous.getLastModified() != current.getLastModified()
+        || !Objects.equals(previous.getMedia(), current.getMedia());
+  }
+
+  private void loadSnapshot() {
+    if (snapshotLocation.isEmpty() || !Files.isReadable(Paths.get(snapshotLocation))) {
+      return;
+    }
+    Path snapshot = Paths.get(snapshotLocation);
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC) {
+        log.warn("Ignoring catalog snapshot {} with unknown format", snapshot);
+        return;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Path path = Paths.get(in.readUTF());
+        Movie movie = svc.createMovie(path, in.readLong(), in.readLong());
+        movies.put(path, metadata.attachCached(movie));
+      }
+      version.incrementAndGet();
+      log.info("Loaded {} movies from catalog snapshot {}", count, snapshot);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to load catalog snapshot {}", snapshot, e);
+      movies.clear();
+    }
+  }
+
+  private synchronized void saveSnapshot() {
+    if (snapshotLocation.isEmpty()) {
+      return;
+    }
+    Path snapshot = Paths.get(snapshotLocation).toAbsolutePath();
+    Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+    List<Movie> entries = List.copyOf(movies.values());
+    try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(entries.size());
+      for (Movie movie : entries) {
+        out.writeUTF(movie.getFile().toString());
+        out.writeLong(movie.getSize());
+        out.writeLong(movie.getLastModified());
+      }
+    } catch (IOException e) {
+      log.warn("Unable to write catalog snapshot {}", snapshot, e);
+      return;
+    }
+    try {
+      Files.move(
+          tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Unable to replace catalog snapshot {}", snapshot, e);
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package net.jk.app.videostreamer.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.model.MovieSort;
+import org.springframework.lang.Nullable;
+
+/**
+ * Immutable, pre-sorted snapshot of the movie catalog.
+ *
+ * <p>One array is kept per {@link MovieSort}, so a page is a binary search for the cursor position
+ * followed by a walk of at most one page worth of matching entries. Prefix searches in {@link
+ * MovieSort#NAME} order are answered from the contiguous range of matching titles; any other
+ * search filters entries while walking.
+ */
+public final class MovieIndex {
+
+  private final long version;
+
+  private final List<Movie> movies;
+
+  private final Map<MovieSort, Movie[]> sorted = new EnumMap<>(MovieSort.class);
+
+  private final Map<String, Movie> byPath;
+
+  MovieIndex(long version, Collection<Movie> movies) {
+    this.version = version;
+    this.movies = List.copyOf(movies);
+    Movie[] all = this.movies.toArray(new Movie[0]);
+    for (MovieSort sort : MovieSort.values()) {
+      Movie[] copy = all.clone();
+      Arrays.sort(copy, sort.getComparator());
+      sorted.put(sort, copy);
+    }
+    byPath = new HashMap<>(all.length * 2);
+    for (Movie movie : all) {
+      byPath.put(movie.getFile().toString(), movie);
+    }
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /** Returns every movie, ordered by path. */
+  public List<Movie> getMovies() {
+    return movies;
+  }
+
+  /** Looks up a movie by the absolute path of its file, as request paths carry it once decoded. */
+  public Optional<Movie> findByPath(String path) {
+    return Optional.ofNullable(byPath.get(path));
+  }
+
+  /**
+   * Returns up to {@code limit} movies in the given order that match the query and come strictly
+   * after {@code after}.
+   *
+   * @param query case-insensitive title filter, {@code null} or empty to match everything
+   * @param substring match the query anywhere in the title instead of only as a prefix
+   * @param after the last movie of the previous page, {@code null} for the first page
+   */
+  public List<Movie> page(
+      MovieSort sort,
+      boolean descending,
+      @Nullable String query,
+      boolean substring,
+      @Nullable Movie after,
+      int limit) {
+    Movie[] entries = sorted.get(sort);
+    Comparator<Movie> comparator = sort.getComparator();
+    boolean filter = query != null && !query.isEmpty();
+
+    int from = 0;
+    int to = entries.length;
+    if (filter && !substring && sort == MovieSort.NAME) {
+      from = lowerBound(entries, query);
+      to = from;
+      while (to < entries.length && startsWithIgnoreCase(entries[to].getTitle(), query)) {
+        to++;
+      }
+      filter = false;
+    }
+
+    List<Movie> page = new ArrayList<>(Math.min(limit, to - from));
+    if (descending) {
+      int i = after == null ? to - 1 : Math.min(to, lowerBound(entries, after, comparator)) - 1;
+      for (; i >= from && page.size() < limit; i--) {
+        if (!filter || matches(entries[i].getTitle(), query, substring)) {
+          page.add(entries[i]);
+        }
+      }
+    } else {
+      int i = after == null ? from : Math.max(from, upperBound(entries, after, comparator));
+      for (; i < to && page.size() < limit; i++) {
+        if (!filter || matches(entries[i].getTitle(), query, substring)) {
+          page.add(entries[i]);
+        }
+      }
+    }
+    return page;
+  }
+
+  private static boolean matches(String title, String query, boolean substring) {
+    if (!substring) {
+      return startsWithIgnoreCase(title, query);
+    }
+    for (int i = 0; i <= title.length() - query.length(); i++) {
+      if (title.regionMatches(true, i, query, 0, query.length())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean startsWithIgnoreCase(String title, String prefix) {
+    return title.regionMatches(true, 0, prefix, 0, prefix.length());
+  }
+
+  /** First index whose title is not less than the given prefix, ignoring case. */
+  private static int lowerBound(Movie[] byName, String prefix) {
+    int lo = 0;
+    int hi = byName.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (String.CASE_INSENSITIVE_ORDER.compare(byName[mid].getTitle(), prefix) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /** First index whose entry is not less than the key. */
+  private static int lowerBound(Movie[] entries, Movie key, Comparator<Movie> comparator) {
+    int lo = 0;
+    int hi = entries.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (comparator.compare(entries[mid], key) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /** First index whose entry is greater than the key. */
+  private static int upperBound(Movie[] entries, Movie key, Comparator<Movie> comparator) {
+    int lo = 0;
+    int hi = entries.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (comparator.compare(entries[mid], key) <= 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
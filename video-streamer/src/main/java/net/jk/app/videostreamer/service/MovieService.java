@@ -1,20 +1,37 @@
 package net.jk.app.videostreamer.service;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.escape.Escaper;
 import com.google.common.net.UrlEscapers;
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import net.jk.app.videostreamer.config.VideoRootProperties;
 import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.model.ScanResult;
+import net.jk.app.videostreamer.model.VideoRoot;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.http.MediaTypeFactory;
@@ -24,15 +41,48 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class MovieService {
 
-  @Value("${video.location}")
+  @Value("${video.location:}")
   private String videoLocation;
 
+  @Autowired private VideoRootProperties rootProperties;
+
+  /** Ordered from the highest weight to the lowest. */
+  private List<VideoRoot> roots;
+
+  @Value("${video.catalog.scan-parallelism:8}")
+  private int scanParallelism;
+
+  private ForkJoinPool scanPool;
+
   private static final Escaper ESCAPER = UrlEscapers.urlPathSegmentEscaper();
 
   private static final List<MediaType> MEDIA_TYPES = new ArrayList<>();
 
+  /** Escaped paths of the catalog, so rescans share one instance per path. */
+  private static final Interner<String> PATHS = Interners.newWeakInterner();
+
+  /** Video media types by lower-case extension, empty for extensions that are no video. */
+  private final Map<String, Optional<MediaType>> mediaTypes =
+      CacheBuilder.newBuilder().maximumSize(256).<String, Optional<MediaType>>build().asMap();
+
   @PostConstruct
   private void init() {
+    // scanning waits on the file system rather than the CPU, so this is not tied to the core count
+    scanPool = new ForkJoinPool(scanParallelism);
+
+    List<VideoRoot> configured = new ArrayList<>();
+    for (VideoRootProperties.Root root : rootProperties.getRoots()) {
+      configured.add(new VideoRoot(normalize(root.getPath()), root.getTier(), root.getWeight()));
+    }
+    if (configured.isEmpty()) {
+      // an empty location would resolve to the working directory and serve whatever lies there
+      if (videoLocation.isBlank()) {
+        throw new IllegalStateException("Neither video.roots nor video.location is configured");
+      }
+      configured.add(new VideoRoot(normalize(videoLocation), "default", 1));
+    }
+    configured.sort(Comparator.comparingInt(VideoRoot::getWeight).reversed());
+    roots = List.copyOf(configured);
     MEDIA_TYPES.add(MediaType.valueOf("video/x-matroska"));
     MEDIA_TYPES.add(MediaType.valueOf("video/x-msvideo"));
     MEDIA_TYPES.add(MediaType.valueOf("video/x-ms-wmv"));
@@ -40,17 +90,64 @@ public class MovieService {
     MEDIA_TYPES.add(MediaType.valueOf("video/x-ms-vob"));
   }
 
-  public List<Movie> getMoviesList() {
-    log.info("Video location {} ", videoLocation);
+  @PreDestroy
+  private void destroy() {
+    scanPool.shutdownNow();
+  }
+
+  /** Returns every video root, the highest weight first. */
+  public List<VideoRoot> getRoots() {
+    return roots;
+  }
+
+  /** Returns the innermost root the file lies in. */
+  public Optional<VideoRoot> getRoot(Path file) {
+    VideoRoot found = null;
+    for (VideoRoot root : roots) {
+      if (file.startsWith(root.getPath())
+          && (found == null || root.getPath().startsWith(found.getPath()))) {
+        found = root;
+      }
+    }
+    return Optional.ofNullable(found);
+  }
+
+  /** Returns the path of the movie's file relative to its root, which is the same for copies. */
+  public Path getRelativePath(Movie movie) {
+    var root = movie.getRoot();
+    return root == null ? movie.getFile() : root.getPath().relativize(movie.getFile());
+  }
+
+  /**
+   * Walks the given directory tree and returns every regular video file found below it.
+   * Subdirectories are listed concurrently, at most {@code video.catalog.scan-parallelism} at a
+   * time. A directory or file that cannot be read is reported in the result and skipped, like a
+   * {@link java.nio.file.FileVisitor} continuing after {@code visitFileFailed}, so one bad mount
+   * does not lose the rest of the library. As with {@link Files#walk}, symbolic links to files are
+   * followed and links to directories are not.
+   */
+  public ScanResult scanMovies(Path root) {
+    log.info("Scanning video location {} ", root);
+    var movies = new ConcurrentLinkedQueue<Movie>();
+    var errors = new ConcurrentLinkedQueue<ScanResult.ScanError>();
+    BasicFileAttributes attrs;
     try {
-      return Files.walk(Paths.get(videoLocation))
-          .filter(Files::isRegularFile)
-          .filter(isVideoFile)
-          .map(createMovie)
-          .collect(Collectors.toList());
+      attrs = Files.readAttributes(root, BasicFileAttributes.class);
     } catch (IOException e) {
-      // TODO throw custom exception
-      return Collections.emptyList();
+      errors.add(new ScanResult.ScanError(root.toAbsolutePath(), e.toString()));
+      return new ScanResult(List.of(), List.copyOf(errors));
+    }
+    if (attrs.isDirectory()) {
+      scanPool.invoke(new DirectoryScan(root.toAbsolutePath(), movies, errors));
+    } else {
+      visitFile(root.toAbsolutePath(), attrs, movies);
+    }
+    return new ScanResult(new ArrayList<>(movies), List.copyOf(errors));
+  }
+
+  private void visitFile(Path file, BasicFileAttributes attrs, Collection<Movie> movies) {
+    if (attrs.isRegularFile() && isVideoFile.test(file)) {
+      movies.add(createMovie(file, attrs.size(), attrs.lastModifiedTime().toMillis()));
     }
   }
 
@@ -58,18 +155,88 @@ public class MovieService {
     return ESCAPER.escape(videoName);
   }
 
-  private Predicate<Path> isVideoFile =
-      (path) -> {
-        MediaType mediaType =
-            MediaTypeFactory.getMediaType(path.getFileName().toString()).orElse(null);
-        return MEDIA_TYPES.contains(mediaType);
-      };
-
-  private Function<Path, Movie> createMovie =
-      (path) -> {
-        return Movie.builder()
-            .title(path.getFileName().toString())
-            .path(ESCAPER.escape(path.toAbsolutePath().toString()))
-            .build();
-      };
+  public boolean isVideoFile(Path path) {
+    return isVideoFile.test(path);
+  }
+
+  private Optional<MediaType> getVideoMediaType(Path path) {
+    var extension =
+        FilenameUtils.getExtension(path.getFileName().toString()).toLowerCase(Locale.ROOT);
+    return mediaTypes.computeIfAbsent(
+        extension,
+        ext -> MediaTypeFactory.getMediaType("video." + ext).filter(MEDIA_TYPES::contains));
+  }
+
+  /** Creates a movie for the given file, reading its size and modification time from disk. */
+  public Movie createMovie(Path path) throws IOException {
+    var attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    return createMovie(path.toAbsolutePath(), attrs.size(), attrs.lastModifiedTime().toMillis());
+  }
+
+  public Movie createMovie(Path path, long size, long lastModified) {
+    return Movie.builder()
+        .title(path.getFileName().toString())
+        .path(PATHS.intern(ESCAPER.escape(path.toAbsolutePath().toString())))
+        .mediaType(getVideoMediaType(path).orElse(MediaType.APPLICATION_OCTET_STREAM))
+        .file(path)
+        .root(getRoot(path).orElse(null))
+        .size(size)
+        .lastModified(lastModified)
+        .etag('"' + Long.toHexString(size) + '-' + Long.toHexString(lastModified) + '"')
+        .build();
+  }
+
+  /** Lists one directory, scanning its subdirectories as parallel subtasks. */
+  private class DirectoryScan extends RecursiveAction {
+    private final Path dir;
+    private final Collection<Movie> movies;
+    private final Collection<ScanResult.ScanError> errors;
+
+    private DirectoryScan(
+        Path dir, Collection<Movie> movies, Collection<ScanResult.ScanError> errors) {
+      this.dir = dir;
+      this.movies = movies;
+      this.errors = errors;
+    }
+
+    @Override
+    protected void compute() {
+      List<DirectoryScan> subdirectories = new ArrayList<>();
+      try (var entries = Files.newDirectoryStream(dir)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attrs;
+          try {
+            attrs =
+                Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isSymbolicLink()) {
+              // linked files are part of the library, linked directories are not descended into,
+              // which keeps link cycles out of the scan
+              attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+              if (!attrs.isDirectory()) {
+                visitFile(entry, attrs, movies);
+              }
+              continue;
+            }
+          } catch (IOException e) {
+            errors.add(new ScanResult.ScanError(entry, e.toString()));
+            continue;
+          }
+          if (attrs.isDirectory()) {
+            subdirectories.add(new DirectoryScan(entry, movies, errors));
+          } else {
+            visitFile(entry, attrs, movies);
+          }
+        }
+      } catch (IOException | DirectoryIteratorException e) {
+        errors.add(new ScanResult.ScanError(dir, e.toString()));
+      }
+      invokeAll(subdirectories);
+    }
+  }
+
+  private static Path normalize(String path) {
+    return Paths.get(path).toAbsolutePath().normalize();
+  }
+
+  private Predicate<Path> isVideoFile = (path) -> getVideoMediaType(path).isPresent();
 }
@@ -0,0 +1,70 @@
+package net.jk.app.videostreamer.service;
+
+import net.jk.app.videostreamer.config.RangeHeaders;
+import net.jk.app.videostreamer.model.MediaInfo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpRange;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides how many bytes to serve for a requested range.
+ *
+ * <p>Ranges with an explicit end are honored in full up to {@code video.range.max-length}. Open
+ * ended ranges, and requests without a range, get a chunk sized to cover {@code
+ * video.range.chunk-seconds} of playback at the file's bitrate, clamped between {@code
+ * video.range.min-chunk-size} and {@code video.range.max-chunk-size}. The bitrate is the probed
+ * one when known, and otherwise estimated from the file size.
+ */
+@Component
+public class RangePolicy {
+
+  @Value("${video.range.max-length:67108864}")
+  private long maxLength;
+
+  @Value("${video.range.min-chunk-size:1048576}")
+  private long minChunkSize;
+
+  @Value("${video.range.max-chunk-size:16777216}")
+  private long maxChunkSize;
+
+  @Value("${video.range.chunk-seconds:8}")
+  private long chunkSeconds;
+
+  /**
+   * Used to estimate the bitrate from the file size alone for files that could not be probed. A
+   * feature length film is a reasonable default for a movie library.
+   */
+  @Value("${video.range.assumed-duration-seconds:5400}")
+  private long assumedDurationSeconds;
+
+  /**
+   * Returns the number of bytes to serve for the range, starting at its start position. Only
+   * ranges parsed by {@link RangeHeaders#parseRanges} are recognized as open ended.
+   *
+   * @param media probed media information of the file, {@code null} if unknown
+   */
+  public long getRegionLength(HttpRange range, long contentLength, @Nullable MediaInfo media) {
+    var start = range.getRangeStart(contentLength);
+    var end = range.getRangeEnd(contentLength);
+    var requested = end - start + 1;
+    if (range instanceof RangeHeaders.OpenEndedRange) {
+      return Long.min(getChunkSize(contentLength, media), requested);
+    }
+    return Long.min(maxLength, requested);
+  }
+
+  /** Returns the number of bytes to serve from the start of the file when no range was sent. */
+  public long getRegionLength(long contentLength, @Nullable MediaInfo media) {
+    return Long.min(getChunkSize(contentLength, media), contentLength);
+  }
+
+  private long getChunkSize(long contentLength, @Nullable MediaInfo media) {
+    var bytesPerSecond =
+        media != null && media.getBitrate() > 0
+            ? media.getBitrate() / 8
+            : contentLength / Long.max(1, assumedDurationSeconds);
+    var chunk = bytesPerSecond * chunkSeconds;
+    return Long.max(minChunkSize, Long.min(maxChunkSize, chunk));
+  }
+}
@@ -0,0 +1,247 @@
+package net.jk.app.videostreamer.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Reads ahead of clients that stream a file sequentially, so their next range is already in the
+ * page cache when they ask for it.
+ *
+ * <p>Every client and file pair is a session. Once a session has asked for {@code
+ * video.prefetch.min-sequential} ranges that each start where the previous one ended, the next
+ * {@code video.prefetch.chunks} ranges of the same size are read in the background. Java has no
+ * {@code posix_fadvise}, so the data is read into one of a fixed pool of direct scratch buffers and
+ * dropped, which leaves it in the page cache for {@code sendfile} or the copy path. When all
+ * scratch buffers are busy the read-ahead is skipped rather than queued.
+ *
+ * <p>Usefulness is counted in {@code video.prefetch.bytes}: {@code issued} bytes were read ahead,
+ * {@code useful} were later requested by the session and {@code wasted} never were, because the
+ * client seeked away or went idle for {@code video.prefetch.session-timeout-ms}.
+ */
+@Component
+@Slf4j
+public class ReadAheadPrefetcher {
+
+  @Value("${video.prefetch.enabled:false}")
+  private boolean enabled;
+
+  @Value("${video.prefetch.chunks:2}")
+  private int chunks;
+
+  @Value("${video.prefetch.min-sequential:2}")
+  private int minSequential;
+
+  @Value("${video.prefetch.max-concurrent:4}")
+  private int maxConcurrent;
+
+  @Value("${video.prefetch.buffer-size:1048576}")
+  private int bufferSize;
+
+  @Value("${video.prefetch.session-timeout-ms:60000}")
+  private long sessionTimeoutMs;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Autowired private Scheduler videoIoScheduler;
+
+  private Cache<SessionKey, Session> sessions;
+
+  private BlockingQueue<ByteBuffer> scratchBuffers;
+
+  private Semaphore readers;
+
+  private Counter issuedBytes;
+
+  private Counter usefulBytes;
+
+  private Counter wastedBytes;
+
+  private Counter skippedCounter;
+
+  @PostConstruct
+  private void init() {
+    sessions =
+        CacheBuilder.newBuilder()
+            .expireAfterAccess(sessionTimeoutMs, TimeUnit.MILLISECONDS)
+            .maximumSize(10_000)
+            .removalListener(this::onSessionEnd)
+            .build();
+    scratchBuffers = new ArrayBlockingQueue<>(Math.max(1, maxConcurrent));
+    readers = new Semaphore(maxConcurrent);
+    issuedBytes = prefetchCounter("issued");
+    usefulBytes = prefetchCounter("useful");
+    wastedBytes = prefetchCounter("wasted");
+    skippedCounter = Counter.builder("video.prefetch.skipped").register(meterRegistry);
+  }
+
+  /**
+   * Records that the client is about to be sent the region, and reads ahead if the client's
+   * requests for this file have been sequential.
+   *
+   * @param client address of the client, nothing is prefetched for unknown clients
+   */
+  public void onRead(@Nullable String client, ResourceRegion region) {
+    var resource = region.getResource();
+    if (!enabled || client == null || !resource.isFile()) {
+      return;
+    }
+    Path file;
+    long length;
+    try {
+      file = resource.getFile().toPath();
+      length = resource.contentLength();
+    } catch (IOException e) {
+      return;
+    }
+    long start = region.getPosition();
+    long end = Math.min(length, start + region.getCount());
+    Session session;
+    try {
+      session = sessions.get(new SessionKey(client, file), Session::new);
+    } catch (ExecutionException e) {
+      return;
+    }
+
+    long prefetchFrom;
+    long prefetchTo;
+    synchronized (session) {
+      usefulBytes.increment(session.consume(start, end));
+      if (start == session.lastEnd) {
+        session.sequential++;
+      } else {
+        wastedBytes.increment(session.discard(end));
+        session.sequential = 1;
+      }
+      session.lastEnd = end;
+      if (session.sequential < minSequential) {
+        return;
+      }
+      if (session.prefetchedTo <= end) {
+        // everything read ahead so far has been used, what follows was requested, not prefetched
+        session.accountedTo = end;
+      }
+      prefetchFrom = Math.max(end, session.prefetchedTo);
+      prefetchTo = Math.min(length, end + chunks * (end - start));
+      if (prefetchFrom >= prefetchTo) {
+        return;
+      }
+      if (!readers.tryAcquire()) {
+        skippedCounter.increment();
+        return;
+      }
+      session.prefetchedTo = prefetchTo;
+    }
+    try {
+      videoIoScheduler.schedule(() -> readAhead(file, prefetchFrom, prefetchTo));
+    } catch (RejectedExecutionException e) {
+      // the I/O scheduler is saturated by requests, which matter more than read-ahead
+      synchronized (session) {
+        session.prefetchedTo = Math.min(session.prefetchedTo, prefetchFrom);
+      }
+      readers.release();
+      skippedCounter.increment();
+      return;
+    }
+    issuedBytes.increment(prefetchTo - prefetchFrom);
+  }
+
+  private void readAhead(Path file, long from, long to) {
+    // at most one buffer per permitted reader is ever allocated
+    ByteBuffer scratch = scratchBuffers.poll();
+    if (scratch == null) {
+      scratch = ByteBuffer.allocateDirect(bufferSize);
+    }
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long position = from;
+      while (position < to) {
+        scratch.clear().limit((int) Math.min(scratch.capacity(), to - position));
+        int read = channel.read(scratch, position);
+        if (read < 0) {
+          break;
+        }
+        position += read;
+      }
+    } catch (IOException e) {
+      log.debug("Unable to read ahead {}", file, e);
+    } finally {
+      scratchBuffers.offer(scratch);
+      readers.release();
+    }
+  }
+
+  private void onSessionEnd(RemovalNotification<SessionKey, Session> notification) {
+    var session = notification.getValue();
+    if (session != null) {
+      synchronized (session) {
+        wastedBytes.increment(session.discard(session.lastEnd));
+      }
+    }
+  }
+
+  private Counter prefetchCounter(String result) {
+    return Counter.builder("video.prefetch.bytes")
+        .baseUnit("bytes")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+  @EqualsAndHashCode
+  @RequiredArgsConstructor
+  private static final class SessionKey {
+    private final String client;
+    private final Path file;
+  }
+
+  /** Read position of one client in one file, and what has been read ahead for it. */
+  private static final class Session {
+    private long lastEnd = -1;
+    private int sequential;
+    /** Bytes before this offset have been read ahead, or requested by the client. */
+    private long prefetchedTo;
+    /** Read-ahead bytes before this offset have been accounted as useful or wasted. */
+    private long accountedTo;
+
+    /** Returns how many read-ahead bytes the request for {@code [start, end)} uses. */
+    private long consume(long start, long end) {
+      long from = Math.max(start, accountedTo);
+      long to = Math.min(end, prefetchedTo);
+      if (to <= from) {
+        return 0;
+      }
+      accountedTo = to;
+      return to - from;
+    }
+
+    /** Gives up on the outstanding read-ahead and returns how many of its bytes were never used. */
+    private long discard(long position) {
+      long wasted = Math.max(0, prefetchedTo - accountedTo);
+      prefetchedTo = position;
+      accountedTo = position;
+      return wasted;
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package net.jk.app.videostreamer.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Size-bounded cache of hot video blocks held in pooled direct Netty buffers.
+ *
+ * <p>Files are split into blocks of {@code video.cache.block-size} bytes. A block is only admitted
+ * once it has been missed {@code video.cache.admission-count} times, so a single viewer streaming a
+ * film end to end does not flush the trailers everybody watches. Admitted blocks are loaded in the
+ * background, the request that missed is served from disk as usual. Eviction is least recently
+ * used.
+ *
+ * <p>Hits are served as slices of the cached buffers. Every slice holds a reference on its block,
+ * so an evicted block is only freed after the responses still writing it are done.
+ */
+@Component
+@Slf4j
+public class SegmentCache {
+
+  @Value("${video.cache.enabled:false}")
+  private boolean enabled;
+
+  @Value("${video.cache.block-size:1048576}")
+  private int blockSize;
+
+  @Value("${video.cache.capacity:268435456}")
+  private long capacity;
+
+  @Value("${video.cache.admission-count:2}")
+  private int admissionCount;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Autowired private Scheduler videoIoScheduler;
+
+  private final LinkedHashMap<BlockKey, ByteBuf> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Set<BlockKey> loading = new HashSet<>();
+
+  private final Cache<BlockKey, AtomicInteger> misses =
+      CacheBuilder.newBuilder().maximumSize(100_000).build();
+
+  private long size;
+
+  private Counter hitCounter;
+
+  private Counter missCounter;
+
+  private Counter evictionCounter;
+
+  @PostConstruct
+  private void init() {
+    hitCounter =
+        Counter.builder("video.cache.requests").tag("result", "hit").register(meterRegistry);
+    missCounter =
+        Counter.builder("video.cache.requests").tag("result", "miss").register(meterRegistry);
+    evictionCounter = Counter.builder("video.cache.evictions").register(meterRegistry);
+    Gauge.builder("video.cache.size", this, SegmentCache::getSize)
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  @PreDestroy
+  private void destroy() {
+    synchronized (this) {
+      blocks.values().forEach(ByteBuf::release);
+      blocks.clear();
+      size = 0;
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the region as buffers sharing the cached memory when every block it covers is cached.
+   * On a miss the blocks are counted towards admission and empty is returned.
+   *
+   * @param length current length of the file
+   * @param lastModified current modification time of the file, so a replaced file never hits
+   */
+  public Optional<Flux<DataBuffer>> read(
+      Path file,
+      long length,
+      long lastModified,
+      long position,
+      long count,
+      DataBufferFactory bufferFactory) {
+    if (!enabled || count <= 0 || !(bufferFactory instanceof NettyDataBufferFactory)) {
+      return Optional.empty();
+    }
+    var factory = (NettyDataBufferFactory) bufferFactory;
+    long first = position / blockSize;
+    long last = (position + count - 1) / blockSize;
+    List<ByteBuf> slices = new ArrayList<>((int) (last - first + 1));
+    synchronized (this) {
+      for (long index = first; index <= last; index++) {
+        ByteBuf block = blocks.get(new BlockKey(file, length, lastModified, index));
+        if (block == null) {
+          slices.forEach(ByteBuf::release);
+          missCounter.increment();
+          admit(file, length, lastModified, first, last);
+          return Optional.empty();
+        }
+        long blockStart = index * blockSize;
+        int from = (int) (Math.max(position, blockStart) - blockStart);
+        long blockEnd = blockStart + block.readableBytes();
+        int to = (int) (Math.min(position + count, blockEnd) - blockStart);
+        slices.add(block.retainedSlice(from, to - from));
+      }
+    }
+    hitCounter.increment();
+    var emitted = new AtomicInteger();
+    return Optional.of(
+        Flux.fromIterable(slices)
+            .doOnNext(slice -> emitted.incrementAndGet())
+            .map(slice -> (DataBuffer) factory.wrap(slice))
+            .doFinally(
+                signal -> {
+                  // release the slices a cancelled response never took ownership of
+                  for (int i = emitted.get(); i < slices.size(); i++) {
+                    slices.get(i).release();
+                  }
+                }));
+  }
+
+  private synchronized long getSize() {
+    return size;
+  }
+
+  private void admit(Path file, long length, long lastModified, long first, long last) {
+    for (long index = first; index <= last; index++) {
+      var key = new BlockKey(file, length, lastModified, index);
+      if (blocks.containsKey(key) || loading.contains(key)) {
+        continue;
+      }
+      var count = misses.asMap().computeIfAbsent(key, k -> new AtomicInteger());
+      if (count.incrementAndGet() >= admissionCount) {
+        misses.invalidate(key);
+        loading.add(key);
+        try {
+          videoIoScheduler.schedule(() -> load(key));
+        } catch (RejectedExecutionException e) {
+          // the I/O scheduler is saturated, admit the block on a later miss
+          loading.remove(key);
+        }
+      }
+    }
+  }
+
+  private void load(BlockKey key) {
+    long position = key.index * blockSize;
+    int blockLength = (int) Math.min(blockSize, key.length - position);
+    ByteBuf block = PooledByteBufAllocator.DEFAULT.directBuffer(blockLength, blockLength);
+    try (var channel = FileChannel.open(key.file, StandardOpenOption.READ)) {
+      while (block.isWritable()) {
+        int read =
+            block.writeBytes(channel, position + block.writerIndex(), block.writableBytes());
+        if (read < 0) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Unable to cache block {} of {}", key.index, key.file, e);
+      block.release();
+      synchronized (this) {
+        loading.remove(key);
+      }
+      return;
+    }
+    synchronized (this) {
+      loading.remove(key);
+      if (block.readableBytes() != blockLength || blockLength > capacity) {
+        block.release();
+        return;
+      }
+      evict(capacity - blockLength);
+      ByteBuf previous = blocks.put(key, block);
+      if (previous != null) {
+        previous.release();
+        size -= previous.readableBytes();
+      }
+      size += blockLength;
+    }
+  }
+
+  /** Evicts least recently used blocks until no more than {@code target} bytes are cached. */
+  private void evict(long target) {
+    Iterator<Map.Entry<BlockKey, ByteBuf>> it = blocks.entrySet().iterator();
+    while (size > target && it.hasNext()) {
+      ByteBuf block = it.next().getValue();
+      it.remove();
+      size -= block.readableBytes();
+      block.release();
+      evictionCounter.increment();
+    }
+  }
+
+  @EqualsAndHashCode
+  @RequiredArgsConstructor
+  private static final class BlockKey {
+    private final Path file;
+    private final long length;
+    private final long lastModified;
+    private final long index;
+  }
+}
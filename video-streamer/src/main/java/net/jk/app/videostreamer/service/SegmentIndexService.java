@@ -0,0 +1,179 @@
+package net.jk.app.videostreamer.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.jk.app.videostreamer.media.Keyframe;
+import net.jk.app.videostreamer.media.KeyframeReader;
+import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.model.SegmentIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Computes keyframe-aligned segment indexes of the movies in the catalog.
+ *
+ * <p>Keyframes are read from the index the container already carries and grouped into segments of
+ * about {@code video.hls.target-duration-seconds}. The first segment starts at the beginning of
+ * the file so it carries the container headers. Indexes are cached per file, up to {@code
+ * video.hls.index-cache-bytes} of heap, and recomputed when its validator changes.
+ *
+ * <p>If {@code video.hls.precompute} is enabled, a background sweep computes the indexes of every
+ * catalog entry ahead of the first playlist request, one file at a time so it does not compete
+ * with streaming for disk bandwidth. It only helps if the cache holds the whole catalog's indexes.
+ */
+@Service
+@Slf4j
+public class SegmentIndexService {
+
+  @Value("${video.hls.target-duration-seconds:6}")
+  private double targetDurationSeconds;
+
+  @Value("${video.hls.precompute:false}")
+  private boolean precompute;
+
+  @Value("${video.hls.precompute-interval-ms:60000}")
+  private long precomputeIntervalMs;
+
+  @Value("${video.hls.index-cache-bytes:16777216}")
+  private long indexCacheBytes;
+
+  @Autowired private MovieCatalog catalog;
+
+  private Cache<Path, SegmentIndex> indexes;
+
+  private ScheduledExecutorService executor;
+
+  private long precomputedVersion = -1;
+
+  @PostConstruct
+  private void init() {
+    indexes =
+        CacheBuilder.newBuilder()
+            .maximumWeight(indexCacheBytes)
+            .<Path, SegmentIndex>weigher((file, index) -> index.getWeight())
+            .build();
+    if (!precompute) {
+      return;
+    }
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "segment-indexer");
+              t.setDaemon(true);
+              t.setPriority(Thread.MIN_PRIORITY);
+              return t;
+            });
+    executor.scheduleWithFixedDelay(
+        this::precomputeAll, precomputeIntervalMs, precomputeIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  private void destroy() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the segment index of the movie, computing it if it is missing or stale. This reads the
+   * container index from disk, so it must not be called on an event loop thread.
+   */
+  public SegmentIndex getIndex(Movie movie) {
+    var index = indexes.getIfPresent(movie.getFile());
+    if (index == null || !index.getEtag().equals(movie.getEtag())) {
+      index = computeIndex(movie);
+      indexes.put(movie.getFile(), index);
+    }
+    return index;
+  }
+
+  /** Indexes every catalog entry that has none yet, and forgets files no longer cataloged. */
+  private void precomputeAll() {
+    long version = catalog.getVersion();
+    if (version == precomputedVersion) {
+      return;
+    }
+    var movies = catalog.getMovies();
+    var present = new HashSet<Path>();
+    int computed = 0;
+    for (Movie movie : movies) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      present.add(movie.getFile());
+      var index = indexes.getIfPresent(movie.getFile());
+      if (index == null || !index.getEtag().equals(movie.getEtag())) {
+        getIndex(movie);
+        computed++;
+      }
+    }
+    indexes.asMap().keySet().retainAll(present);
+    precomputedVersion = version;
+    if (computed > 0) {
+      log.info("Computed segment indexes of {} movies", computed);
+    }
+  }
+
+  private SegmentIndex computeIndex(Movie movie) {
+    var keyframes = new ArrayList<>(KeyframeReader.read(movie.getFile()));
+    keyframes.sort(Comparator.comparingLong(Keyframe::getOffset));
+    var duration = movie.getMedia() == null ? 0 : movie.getMedia().getDuration();
+    return toIndex(movie.getEtag(), keyframes, movie.getSize(), duration);
+  }
+
+  /** Groups keyframes into segments that each start on a keyframe and end where the next begins. */
+  private SegmentIndex toIndex(String etag, List<Keyframe> keyframes, long size, double duration) {
+    if (keyframes.isEmpty()) {
+      return new SegmentIndex(etag, 0, new long[0], new long[0], new double[0]);
+    }
+    // keyframes bound the segment count, one more for the segment starting at 0
+    var offsets = new long[keyframes.size() + 1];
+    var durations = new double[keyframes.size() + 1];
+    int count = 0;
+    long start = 0;
+    double startTime = 0;
+    for (Keyframe keyframe : keyframes) {
+      if (keyframe.getOffset() <= start || keyframe.getOffset() >= size) {
+        continue;
+      }
+      if (keyframe.getTime() - startTime >= targetDurationSeconds) {
+        offsets[count] = start;
+        durations[count++] = keyframe.getTime() - startTime;
+        start = keyframe.getOffset();
+        startTime = keyframe.getTime();
+      }
+    }
+    // without a probed duration, assume the tail plays at the average bitrate
+    double lastDuration = targetDurationSeconds;
+    if (duration > startTime) {
+      lastDuration = duration - startTime;
+    } else if (start > 0 && startTime > 0) {
+      lastDuration = (size - start) * startTime / start;
+    }
+    offsets[count] = start;
+    durations[count++] = lastDuration;
+
+    offsets = Arrays.copyOf(offsets, count);
+    durations = Arrays.copyOf(durations, count);
+    var lengths = new long[count];
+    double longest = 0;
+    for (int i = 0; i < count; i++) {
+      lengths[i] = (i + 1 < count ? offsets[i + 1] : size) - offsets[i];
+      longest = Math.max(longest, durations[i]);
+    }
+    return new SegmentIndex(etag, (int) Math.ceil(longest), offsets, lengths, durations);
+  }
+}
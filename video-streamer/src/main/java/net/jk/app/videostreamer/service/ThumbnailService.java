@@ -0,0 +1,300 @@
+package net.jk.app.videostreamer.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.jk.app.videostreamer.model.Movie;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Generates poster frames and seek-preview sprite sheets of movies, once per file version.
+ *
+ * <p>Frames are extracted by an external {@code ffmpeg}, since none of the containers in the
+ * library can be decoded in process. Images are stored below {@code video.thumbnails.cache-dir}
+ * under a hash of the file's path, size and modification time, so a replaced file gets new images
+ * and stale ones are never served. A size-bounded in-memory LRU sits in front of the disk.
+ *
+ * <p>Generation runs on {@code video.thumbnails.workers} low priority threads with a bounded
+ * queue. Requests for images that do not exist yet only enqueue their generation, and when the
+ * queue is full they are dropped and retried on a later request or sweep, so decoding never
+ * competes with streaming for more than the configured share of the machine.
+ */
+@Service
+@Slf4j
+public class ThumbnailService {
+
+  public enum Kind {
+    POSTER,
+    SPRITE
+  }
+
+  @Value("${video.thumbnails.enabled:false}")
+  private boolean enabled;
+
+  @Value("${video.thumbnails.ffmpeg:ffmpeg}")
+  private String ffmpeg;
+
+  @Value("${video.thumbnails.cache-dir:${java.io.tmpdir}/voila-thumbnails}")
+  private String cacheDir;
+
+  @Value("${video.thumbnails.memory-capacity:33554432}")
+  private long memoryCapacity;
+
+  @Value("${video.thumbnails.workers:1}")
+  private int workers;
+
+  @Value("${video.thumbnails.queue-size:256}")
+  private int queueSize;
+
+  @Value("${video.thumbnails.timeout-seconds:300}")
+  private long timeoutSeconds;
+
+  @Value("${video.thumbnails.poster-offset-seconds:60}")
+  private long posterOffsetSeconds;
+
+  @Value("${video.thumbnails.poster-width:320}")
+  private int posterWidth;
+
+  @Value("${video.thumbnails.sprite-interval-seconds:10}")
+  private long spriteIntervalSeconds;
+
+  @Value("${video.thumbnails.sprite-columns:10}")
+  private int spriteColumns;
+
+  @Value("${video.thumbnails.sprite-rows:60}")
+  private int spriteRows;
+
+  @Value("${video.thumbnails.sprite-width:160}")
+  private int spriteWidth;
+
+  @Value("${video.thumbnails.sweep-interval-ms:300000}")
+  private long sweepIntervalMs;
+
+  @Autowired private MovieCatalog catalog;
+
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  private Cache<String, byte[]> images;
+
+  private ThreadPoolExecutor generator;
+
+  private ScheduledExecutorService sweeper;
+
+  @PostConstruct
+  private void init() {
+    images =
+        CacheBuilder.newBuilder()
+            .maximumWeight(memoryCapacity)
+            .<String, byte[]>weigher((key, image) -> image.length)
+            .build();
+    if (!enabled) {
+      return;
+    }
+    var threadCount = new AtomicInteger();
+    generator =
+        new ThreadPoolExecutor(
+            workers,
+            workers,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            r -> {
+              Thread t = new Thread(r, "thumbnail-generator-" + threadCount.incrementAndGet());
+              t.setDaemon(true);
+              t.setPriority(Thread.MIN_PRIORITY);
+              return t;
+            });
+    sweeper =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "thumbnail-sweeper");
+              t.setDaemon(true);
+              return t;
+            });
+    sweeper.scheduleWithFixedDelay(
+        this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  private void destroy() {
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+    if (generator != null) {
+      generator.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the image of the movie if it has been generated, otherwise schedules its generation
+   * and returns empty. Reads from disk on a memory miss, so it must not be called on an event loop
+   * thread.
+   */
+  public Optional<byte[]> getImage(Movie movie, Kind kind) {
+    if (!enabled) {
+      return Optional.empty();
+    }
+    var key = getKey(movie, kind);
+    var image = images.getIfPresent(key);
+    if (image != null) {
+      return Optional.of(image);
+    }
+    var file = getCacheFile(key);
+    if (Files.isRegularFile(file)) {
+      try {
+        image = Files.readAllBytes(file);
+        images.put(key, image);
+        return Optional.of(image);
+      } catch (IOException e) {
+        log.warn("Unable to read thumbnail {}", file, e);
+      }
+    }
+    schedule(movie, kind, key);
+    return Optional.empty();
+  }
+
+  /** Whether images are generated at all, requests for them are answered with 404 otherwise. */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Identifies the image of the current file version, it only changes when the movie file does.
+   * Serves as strong validator of the image, and pages link images with it as version parameter.
+   */
+  public String getKey(Movie movie, Kind kind) {
+    var identity =
+        movie.getFile() + "\n" + movie.getSize() + "\n" + movie.getLastModified() + "\n" + kind;
+    return Hashing.sha256().hashString(identity, StandardCharsets.UTF_8).toString();
+  }
+
+  /** Describes the sprite grid, so players can map a seek position to a tile. */
+  public String getSpriteLayout() {
+    return String.format(
+        "interval=%d, columns=%d, rows=%d, width=%d",
+        spriteIntervalSeconds, spriteColumns, spriteRows, spriteWidth);
+  }
+
+  /** Schedules the images of every catalog entry that has none yet. */
+  private void sweep() {
+    for (Movie movie : catalog.getMovies()) {
+      for (Kind kind : Kind.values()) {
+        var key = getKey(movie, kind);
+        if (!Files.isRegularFile(getCacheFile(key)) && !schedule(movie, kind, key)) {
+          // the queue is full, the next sweep picks up where this one stopped
+          return;
+        }
+      }
+    }
+  }
+
+  private boolean schedule(Movie movie, Kind kind, String key) {
+    if (!pending.add(key)) {
+      return true;
+    }
+    try {
+      generator.execute(
+          () -> {
+            try {
+              generate(movie, kind, key);
+            } finally {
+              pending.remove(key);
+            }
+          });
+      return true;
+    } catch (RejectedExecutionException e) {
+      pending.remove(key);
+      return false;
+    }
+  }
+
+  private void generate(Movie movie, Kind kind, String key) {
+    var target = getCacheFile(key);
+    var tmp = target.resolveSibling(target.getFileName() + ".tmp");
+    try {
+      Files.createDirectories(target.getParent());
+      boolean generated = run(getCommand(movie, kind, posterOffsetSeconds, tmp), tmp);
+      if (!generated && kind == Kind.POSTER) {
+        // shorter than the poster offset, take the first frame instead
+        generated = run(getCommand(movie, kind, 0, tmp), tmp);
+      }
+      if (!generated) {
+        log.warn("Unable to generate {} of {}", kind, movie.getFile());
+        return;
+      }
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Unable to generate {} of {}", kind, movie.getFile(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      try {
+        Files.deleteIfExists(tmp);
+      } catch (IOException e) {
+        log.debug("Unable to delete {}", tmp, e);
+      }
+    }
+  }
+
+  private boolean run(List<String> command, Path output) throws IOException, InterruptedException {
+    var process =
+        new ProcessBuilder(command)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+    if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+      process.destroyForcibly();
+      return false;
+    }
+    return process.exitValue() == 0 && Files.isRegularFile(output) && Files.size(output) > 0;
+  }
+
+  private List<String> getCommand(Movie movie, Kind kind, long offsetSeconds, Path output) {
+    List<String> command = new ArrayList<>();
+    command.add(ffmpeg);
+    command.addAll(List.of("-nostdin", "-y", "-loglevel", "error"));
+    if (kind == Kind.POSTER) {
+      command.addAll(List.of("-ss", String.valueOf(offsetSeconds)));
+      command.addAll(List.of("-i", movie.getFile().toString()));
+      command.addAll(List.of("-vf", "scale=" + posterWidth + ":-2"));
+    } else {
+      // decoding keyframes only keeps a full pass over the film cheap
+      command.addAll(List.of("-skip_frame", "nokey"));
+      command.addAll(List.of("-i", movie.getFile().toString()));
+      var filter =
+          String.format(
+              "fps=1/%d,scale=%d:-2,tile=%dx%d",
+              spriteIntervalSeconds, spriteWidth, spriteColumns, spriteRows);
+      command.addAll(List.of("-vf", filter, "-vsync", "vfr"));
+    }
+    command.addAll(List.of("-frames:v", "1", "-q:v", "4", "-f", "image2", output.toString()));
+    return command;
+  }
+
+  private Path getCacheFile(String key) {
+    return Paths.get(cacheDir, key.substring(0, 2), key + ".jpg");
+  }
+}
@@ -0,0 +1,135 @@
+package net.jk.app.videostreamer.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.model.VideoRoot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Copies the most requested titles to the root of the highest weight, the fastest tier.
+ *
+ * <p>Views are taken from the {@link ViewCounter}. Every {@code video.promotion.interval-ms} the
+ * {@code video.promotion.titles-per-run} most viewed titles with at least {@code
+ * video.promotion.min-requests} views that have no copy on the fastest tier yet are copied there,
+ * as long as {@code video.promotion.reserve-bytes} stay free. Only the views since the previous
+ * run count, so promotion follows what is popular now.
+ *
+ * <p>Copies keep the modification time, so both copies have the same validators and clients'
+ * cached ranges stay valid when requests move to the new copy. Nothing is ever demoted; the
+ * fastest tier has to be pruned by hand.
+ */
+@Service
+@Slf4j
+public class TierPromoter {
+
+  @Value("${video.promotion.enabled:false}")
+  private boolean enabled;
+
+  @Value("${video.promotion.interval-ms:3600000}")
+  private long intervalMs;
+
+  @Value("${video.promotion.titles-per-run:5}")
+  private int titlesPerRun;
+
+  @Value("${video.promotion.min-requests:10}")
+  private long minRequests;
+
+  @Value("${video.promotion.reserve-bytes:10737418240}")
+  private long reserveBytes;
+
+  @Autowired private MovieService svc;
+
+  @Autowired private MovieCatalog catalog;
+
+  @Autowired private ViewCounter viewCounter;
+
+  /** View counts at the previous run, so each run only weighs the views since. */
+  private Map<Path, Long> previousCounts = Map.of();
+
+  private ScheduledExecutorService executor;
+
+  @PostConstruct
+  private void init() {
+    if (!enabled || svc.getRoots().size() < 2) {
+      enabled = false;
+      return;
+    }
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "tier-promoter");
+              t.setDaemon(true);
+              t.setPriority(Thread.MIN_PRIORITY);
+              return t;
+            });
+    executor.scheduleWithFixedDelay(this::promote, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  private void destroy() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private void promote() {
+    var current = viewCounter.getCounts();
+    Map<Path, Long> counts = new HashMap<>();
+    current.forEach(
+        (title, count) -> counts.put(title, count - previousCounts.getOrDefault(title, 0L)));
+    previousCounts = current;
+    var fastest = svc.getRoots().get(0);
+    counts.entrySet().stream()
+        .filter(e -> e.getValue() >= minRequests)
+        .sorted(Map.Entry.<Path, Long>comparingByValue(Comparator.reverseOrder()))
+        .map(e -> catalog.findTitle(e.getKey()))
+        .flatMap(Optional::stream)
+        .filter(movie -> movie.getRoot() != null && !movie.getRoot().equals(fastest))
+        .limit(titlesPerRun)
+        .forEach(movie -> copy(movie, fastest));
+  }
+
+  private void copy(Movie movie, VideoRoot target) {
+    Path destination = target.getPath().resolve(svc.getRelativePath(movie));
+    // not a video file name, so the catalog ignores the copy until it is complete
+    Path tmp = destination.resolveSibling("." + destination.getFileName() + ".promoting");
+    try {
+      Files.createDirectories(destination.getParent());
+      long usable = Files.getFileStore(destination.getParent()).getUsableSpace();
+      if (usable - movie.getSize() < reserveBytes) {
+        log.info("Not promoting {}, {} is full", movie.getFile(), target.getTier());
+        return;
+      }
+      Files.copy(
+          movie.getFile(),
+          tmp,
+          StandardCopyOption.COPY_ATTRIBUTES,
+          StandardCopyOption.REPLACE_EXISTING);
+      Files.move(tmp, destination, StandardCopyOption.ATOMIC_MOVE);
+      catalog.find(destination);
+      log.info("Promoted {} to {}", movie.getFile(), target.getTier());
+    } catch (IOException e) {
+      log.warn("Unable to promote {} to {}", movie.getFile(), target.getTier(), e);
+      try {
+        Files.deleteIfExists(tmp);
+      } catch (IOException ex) {
+        log.debug("Unable to delete {}", tmp, ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package net.jk.app.videostreamer.service;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import net.jk.app.videostreamer.model.Movie;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts views per title, a view being a request for the start of the file. Titles are keyed by
+ * their path relative to the root, so all copies of a title share one count.
+ *
+ * <p>Counts only grow while the process runs. {@link TierPromoter} and {@link CacheWarmer} read
+ * them and keep their own baselines, for the views since the last promotion and the views of
+ * earlier runs respectively.
+ */
+@Component
+public class ViewCounter {
+
+  @Autowired private MovieService svc;
+
+  private final Map<Path, LongAdder> views = new ConcurrentHashMap<>();
+
+  /** Counts a view of the movie's title. */
+  public void recordView(Movie movie) {
+    views.computeIfAbsent(svc.getRelativePath(movie), k -> new LongAdder()).increment();
+  }
+
+  /** Returns a snapshot of the views of every title viewed since startup. */
+  public Map<Path, Long> getCounts() {
+    var counts = new HashMap<Path, Long>();
+    views.forEach((title, count) -> counts.put(title, count.sum()));
+    return counts;
+  }
+}
@@ -3,7 +3,14 @@
 
 <#list videos as video>
     <li>
-        <a href="/${video.path}">${video.title}</a>
+        <a href="/${video.path}">
+            <#if thumbnails>
+            <img src="/videos/${video.path}/poster.jpg?v=${posters[video.path]}"
+                 alt="" width="160" loading="lazy"
+                 onerror="this.onerror=null;this.src='/images/poster-placeholder.svg'">
+            </#if>
+            ${video.title}
+        </a>
     </li>
 </#list>
 </ul>
\ No newline at end of file
@@ -0,0 +1,246 @@
+package net.jk.app.videostreamer.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.jk.app.videostreamer.config.BlockingCallDetector;
+import net.jk.app.videostreamer.model.Movie;
+import net.jk.app.videostreamer.service.MovieCatalog;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+/**
+ * Drives the streaming endpoints through a running server with BlockHound installed, so any
+ * blocking call on a Netty event loop fails the request it was made for.
+ *
+ * <p>The movie is a generated AVI of one-second frames with a keyframe every {@code GOP} frames,
+ * small enough to compare every response byte for byte.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = {
+      "spring.cloud.bootstrap.enabled=false",
+      "spring.cloud.config.enabled=false",
+      "video.cache.enabled=true",
+      "video.mmap.enabled=true",
+      "video.hls.target-duration-seconds=6"
+    })
+class VideoControllerBlockingTest {
+
+  private static final int FRAMES = 24;
+
+  private static final int GOP = 6;
+
+  private static final int FRAME_SIZE = 1000;
+
+  @TempDir static Path videos;
+
+  private static byte[] content;
+
+  /** File offsets of the keyframe chunks, where segments start after the first one. */
+  private static final List<Integer> keyframes = new ArrayList<>();
+
+  @Autowired private WebTestClient client;
+
+  @Autowired private MovieCatalog catalog;
+
+  @LocalServerPort private int port;
+
+  private Movie movie;
+
+  @BeforeAll
+  static void setUp() throws IOException {
+    BlockingCallDetector.install();
+    content = avi();
+    Files.write(videos.resolve("sample.avi"), content);
+    System.setProperty("video.location", videos.toString());
+  }
+
+  @AfterAll
+  static void tearDown() {
+    System.clearProperty("video.location");
+  }
+
+  @BeforeEach
+  void awaitCatalog() throws InterruptedException {
+    // the catalog scans its roots in the background after startup
+    for (int i = 0; i < 100 && catalog.getMovies().isEmpty(); i++) {
+      Thread.sleep(100);
+    }
+    assertThat(catalog.getMovies()).hasSize(1);
+    movie = catalog.getMovies().get(0);
+  }
+
+  @Test
+  void servesFullVideo() {
+    client
+        .get()
+        .uri(uri("/full"))
+        .exchange()
+        .expectStatus()
+        .isOk()
+        .expectHeader()
+        .contentLength(content.length)
+        .expectBody(byte[].class)
+        .isEqualTo(content);
+  }
+
+  @Test
+  void servesRange() {
+    client
+        .get()
+        .uri(uri("/full"))
+        .header(HttpHeaders.RANGE, "bytes=100-1099")
+        .exchange()
+        .expectStatus()
+        .isEqualTo(HttpStatus.PARTIAL_CONTENT)
+        .expectHeader()
+        .valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 100-1099/" + content.length)
+        .expectBody(byte[].class)
+        .isEqualTo(Arrays.copyOfRange(content, 100, 1100));
+  }
+
+  @Test
+  void servesRangeSizedByPolicy() {
+    client
+        .get()
+        .uri(uri(""))
+        .header(HttpHeaders.RANGE, "bytes=0-")
+        .exchange()
+        .expectStatus()
+        .value(status -> assertThat(status).isIn(200, 206))
+        .expectBody(byte[].class)
+        .value(body -> assertThat(content).startsWith(body));
+  }
+
+  @Test
+  void servesPlaylist() {
+    client
+        .get()
+        .uri(uri("/index.m3u8"))
+        .exchange()
+        .expectStatus()
+        .isOk()
+        .expectBody(String.class)
+        .value(playlist -> assertThat(playlist).contains("segments/0\n", "segments/3\n"));
+  }
+
+  @Test
+  void servesSegment() {
+    int start = keyframes.get(1);
+    int end = keyframes.get(2);
+    client
+        .get()
+        .uri(uri("/segments/1"))
+        .exchange()
+        .expectStatus()
+        .isOk()
+        .expectHeader()
+        .contentLength(end - start)
+        .expectBody(byte[].class)
+        .isEqualTo(Arrays.copyOfRange(content, start, end));
+  }
+
+  @Test
+  void servesRangeOfSegment() {
+    int start = keyframes.get(1);
+    int end = keyframes.get(2);
+    client
+        .get()
+        .uri(uri("/segments/1"))
+        .header(HttpHeaders.RANGE, "bytes=10-19")
+        .exchange()
+        .expectStatus()
+        .isEqualTo(HttpStatus.PARTIAL_CONTENT)
+        .expectHeader()
+        .valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 10-19/" + (end - start))
+        .expectBody(byte[].class)
+        .isEqualTo(Arrays.copyOfRange(content, start + 10, start + 20));
+  }
+
+  /** The movie's path is escaped already, so it must not go through URI template encoding. */
+  private URI uri(String suffix) {
+    return URI.create("http://localhost:" + port + "/videos/" + movie.getPath() + suffix);
+  }
+
+  /** RIFF AVI with one video stream, its frames in {@code movi} and an {@code idx1} index. */
+  private static byte[] avi() {
+    var avih = payload(56).putInt(1_000_000).position(16).putInt(FRAMES);
+    avih.position(32).putInt(320).putInt(240);
+    var strh = payload(56).put(fourCc("vids")).position(20).putInt(1).putInt(1);
+    strh.position(32).putInt(FRAMES);
+    var strf = payload(40).putInt(40).putInt(320).putInt(240).position(16).put(fourCc("H264"));
+    var strl = list("strl", chunk("strh", strh), chunk("strf", strf));
+    var hdrl = list("hdrl", chunk("avih", avih), strl);
+
+    // "movi" is followed by the frame chunks, idx1 offsets are relative to it
+    int moviStart = 12 + hdrl.length + 8;
+    var movi = payload(4 + FRAMES * (8 + FRAME_SIZE)).put(fourCc("movi"));
+    var idx1 = payload(FRAMES * 16);
+    keyframes.clear();
+    for (int frame = 0; frame < FRAMES; frame++) {
+      boolean keyframe = frame % GOP == 0;
+      if (keyframe) {
+        keyframes.add(moviStart + movi.position());
+      }
+      idx1.put(fourCc("00dc")).putInt(keyframe ? 0x10 : 0).putInt(movi.position());
+      idx1.putInt(FRAME_SIZE);
+      movi.put(fourCc("00dc")).putInt(FRAME_SIZE);
+      for (int i = 0; i < FRAME_SIZE; i++) {
+        movi.put((byte) (frame * 31 + i));
+      }
+    }
+
+    var body = payload(4 + hdrl.length + 8 + movi.capacity() + 8 + idx1.capacity());
+    body.put(fourCc("AVI ")).put(hdrl);
+    body.put(fourCc("LIST")).putInt(movi.capacity()).put(movi.array());
+    body.put(chunk("idx1", idx1));
+    return chunk("RIFF", body);
+  }
+
+  private static ByteBuffer payload(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static byte[] chunk(String id, ByteBuffer payload) {
+    return payload(8 + payload.capacity())
+        .put(fourCc(id))
+        .putInt(payload.capacity())
+        .put(payload.array())
+        .array();
+  }
+
+  private static byte[] list(String type, byte[]... chunks) {
+    int size = 4;
+    for (byte[] chunk : chunks) {
+      size += chunk.length;
+    }
+    var list = payload(size).put(fourCc(type));
+    for (byte[] chunk : chunks) {
+      list.put(chunk);
+    }
+    return chunk("LIST", list);
+  }
+
+  private static byte[] fourCc(String id) {
+    return id.getBytes(StandardCharsets.US_ASCII);
+  }
+}